@@ -0,0 +1,373 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * An asynchronous version of {@link HtmlFetcher}. Each fetch returns at once
+ * with a future of the HTML, so many requests can be in flight on only a few
+ * threads. Requests are sent with {@link HttpClient}, which multiplexes them
+ * over HTTP/2 where the server supports it. As with HtmlFetcher, only 200
+ * responses of type text/html are read; the bodies of any other responses are
+ * discarded as they arrive, and redirects are followed up to the given number
+ * of times. Bodies are requested compressed with gzip or deflate and decoded
+ * before being split into lines. Once the maximum number of requests are in
+ * flight, later fetches wait their turn without blocking the caller. Given an
+ * {@link HttpCache}, pages already cached are only downloaded again if they
+ * have changed.
+ * @author Jackson Raffety
+ * @see HtmlFetcher
+ */
+public class AsyncHtmlFetcher {
+
+	/** How long to wait to connect to a server or for a response. */
+	public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	/** The client sending every request. */
+	private final HttpClient client;
+
+	/** The WorkQueue running the client's completion callbacks. */
+	private final WorkQueue callbacks;
+
+	/** The cache of earlier fetches, or null for none. */
+	private final HttpCache cache;
+
+	/** The maximum number of fetches in flight at once. */
+	private final int maxInFlight;
+
+	/** The fetches waiting for one in flight to complete. */
+	private final ArrayDeque<Runnable> waiting;
+
+	/** The number of fetches in flight. */
+	private int inFlight;
+
+	/** The largest number of fetches in flight at once. */
+	private int peakInFlight;
+
+	/** The number of fetches completed. */
+	private long completed;
+
+	/**
+	 * Initializes a fetcher.
+	 * @param maxInFlight The maximum number of fetches in flight at once.
+	 * @param threads     The number of threads running completion callbacks.
+	 */
+	public AsyncHtmlFetcher(int maxInFlight, int threads) {
+		this(maxInFlight, threads, null);
+	}
+
+	/**
+	 * Initializes a fetcher which fetches through a cache.
+	 * @param maxInFlight The maximum number of fetches in flight at once.
+	 * @param threads     The number of threads running completion callbacks.
+	 * @param cache       The cache of earlier fetches, or null for none.
+	 */
+	public AsyncHtmlFetcher(int maxInFlight, int threads, HttpCache cache) {
+		this.cache       = cache;
+		this.callbacks   = new WorkQueue(threads);
+		this.client      = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NEVER)
+			.connectTimeout(TIMEOUT)
+			.executor(callbacks::execute)
+			.build();
+		this.maxInFlight = maxInFlight;
+		this.waiting     = new ArrayDeque<>();
+		this.inFlight    = 0;
+	}
+
+	/**
+	 * Fetches the HTML at a URL, following redirects if the number of redirects
+	 * is greater than 0.
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return a future of the html, or of {@code null} if the resource is not
+	 *         html or the url is malformed; completed exceptionally if unable
+	 *         to fetch the resource
+	 */
+	public CompletableFuture<String> fetch(String url, int redirects) {
+		URI uri;
+		try {
+			uri = new URL(url).toURI();
+		}
+		catch (IOException | URISyntaxException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<String> result = new CompletableFuture<>();
+		Runnable start = () -> {
+			CompletableFuture<String> sent;
+			try {
+				sent = send(uri, redirects);
+			}
+			catch (IllegalArgumentException e) {
+				// not a scheme the client supports
+				sent = CompletableFuture.completedFuture(null);
+			}
+			sent.whenComplete((html, error) -> {
+				finished();
+				if (error != null) {
+					result.completeExceptionally(error);
+				}
+				else {
+					result.complete(html);
+				}
+			});
+		};
+
+		synchronized (this) {
+			if (inFlight >= maxInFlight) {
+				waiting.add(start);
+				return result;
+			}
+			inFlight++;
+			peakInFlight = Math.max(peakInFlight, inFlight);
+		}
+		start.run();
+		return result;
+	}
+
+	/**
+	 * Stops the threads running completion callbacks, once every fetch is done.
+	 */
+	public void shutdown() {
+		callbacks.shutdown();
+	}
+
+	/**
+	 * Returns the metrics of the WorkQueue running completion callbacks.
+	 * @return The metrics of the callback threads.
+	 */
+	public WorkQueueStats getStats() {
+		return callbacks.getStats();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("async fetches: %d completed, %d peak in flight of %d",
+			completed, peakInFlight, maxInFlight);
+	}
+
+	/**
+	 * Sends a request, following any redirect with a further request. With a
+	 * cache, a cached page is asked for only if it has changed, and a cached
+	 * permanent redirect is followed without a request.
+	 * @param uri       the uri to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return a future of the html, or of {@code null} if not html
+	 */
+	private CompletableFuture<String> send(URI uri, int redirects) {
+		URL url;
+		try {
+			url = uri.toURL();
+		}
+		catch (IOException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+		HttpCache.Entry cached = cache == null ? null : cache.get(url);
+		if (cached != null && cached.isRedirect()) {
+			if (redirects <= 0) {
+				return CompletableFuture.completedFuture(null);
+			}
+			try {
+				return send(cache.follow(cached, url).toURI(), redirects - 1);
+			}
+			catch (IOException | URISyntaxException | IllegalArgumentException e) {
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET()
+			.header("Accept-Encoding", HttpsFetcher.ACCEPT_ENCODING);
+		if (cached != null) {
+			cached.getConditions().forEach(request::header);
+		}
+		return client.sendAsync(request.build(), AsyncHtmlFetcher::subscribe)
+			.thenCompose(response -> {
+				int status = response.statusCode();
+				if (status == 304 && cached != null) {
+					return CompletableFuture.completedFuture(cache.reuse(cached));
+				}
+				if (response.body() != null) {
+					if (cache != null) {
+						cache.store(url, response.headers().firstValue("ETag").orElse(null),
+							response.headers().firstValue("Last-Modified").orElse(null), response.body());
+					}
+					return CompletableFuture.completedFuture(response.body());
+				}
+				Optional<String> location = response.headers().firstValue("Location");
+				if (cache != null && HtmlFetcher.isPermanent(status) && location.isPresent()) {
+					cache.storeRedirect(url, location.get());
+				}
+				if (redirects > 0 && status >= 300 && status <= 399 && location.isPresent()) {
+					try {
+						return send(uri.resolve(location.get()), redirects - 1);
+					}
+					catch (IllegalArgumentException e) {
+						return CompletableFuture.completedFuture(null);
+					}
+				}
+				return CompletableFuture.completedFuture(null);
+			});
+	}
+
+	/**
+	 * Chooses how to read the body of a response once its headers arrive: as
+	 * HTML if the status code is 200, the content type is HTML and the declared
+	 * length is within {@link HtmlFetcher#MAX_BODY_SIZE}, or otherwise by
+	 * discarding it. Since a chunked or unframed body declares no length, the
+	 * bytes of the body are also counted as they arrive, and the response is
+	 * cancelled once they pass the limit.
+	 * @param info the status code and headers of the response
+	 * @return a subscriber producing the html, or {@code null} if not html
+	 */
+	private static HttpResponse.BodySubscriber<String> subscribe(HttpResponse.ResponseInfo info) {
+		boolean html = info.statusCode() == 200 && info.headers().firstValue("Content-Type")
+			.map(type -> type.toLowerCase().startsWith("text/html"))
+			.orElse(false);
+		if (info.headers().firstValueAsLong("Content-Length").orElse(-1) > HtmlFetcher.MAX_BODY_SIZE) {
+			html = false;
+		}
+		if (!html) {
+			return HttpResponse.BodySubscribers.replacing(null);
+		}
+		String encoding = info.headers().firstValue("Content-Encoding").orElse(null);
+		return HttpResponse.BodySubscribers.mapping(
+			new LimitedSubscriber(HtmlFetcher.MAX_BODY_SIZE),
+			body -> body == null ? null : joinLines(body, encoding));
+	}
+
+	/**
+	 * Decodes a body, splits it into lines and joins them with "\n", matching
+	 * the HTML returned by {@link HtmlFetcher#fetch(URL, int)}.
+	 * @param body     the body of a response, as framed on the wire
+	 * @param encoding the Content-Encoding of the body, or {@code null} if none
+	 * @return the lines of the body joined by "\n", or {@code null} if the
+	 *         body cannot be decoded or is too large once decoded
+	 */
+	private static String joinLines(byte[] body, String encoding) {
+		try {
+			List<String> lines = HttpsFetcher.decodeContent(new ByteArrayInputStream(body),
+				encoding, HtmlFetcher.MAX_BODY_SIZE);
+			return lines == null ? null : String.join("\n", lines);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Records that a fetch completed, starting the next waiting fetch if any.
+	 */
+	private void finished() {
+		Runnable next;
+		synchronized (this) {
+			completed++;
+			next = waiting.poll();
+			if (next == null) {
+				inFlight--;
+			}
+		}
+		if (next != null) {
+			next.run();
+		}
+	}
+
+	/**
+	 * A subscriber collecting the bytes of a body, as
+	 * {@link HttpResponse.BodySubscribers#ofByteArray()} does, which cancels the
+	 * response and produces {@code null} instead once more than a limit of
+	 * bytes have arrived, so a body too large is never downloaded in full.
+	 */
+	private static class LimitedSubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+		/** The largest body to collect, in bytes. */
+		private final long limit;
+
+		/** The body collected, or null if too large. */
+		private final CompletableFuture<byte[]> body;
+
+		/** The buffers received so far. */
+		private final ArrayList<ByteBuffer> received;
+
+		/** The number of bytes received so far. */
+		private long size;
+
+		/** The subscription to the body, once subscribed. */
+		private Flow.Subscription subscription;
+
+		/**
+		 * Initializes a subscriber which has received nothing.
+		 * @param limit the largest body to collect, in bytes
+		 */
+		public LimitedSubscriber(long limit) {
+			this.limit    = limit;
+			this.body     = new CompletableFuture<>();
+			this.received = new ArrayList<>();
+			this.size     = 0;
+		}
+
+		@Override
+		public CompletionStage<byte[]> getBody() {
+			return body;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			if (body.isDone()) {
+				return;
+			}
+			for (ByteBuffer buffer : buffers) {
+				size += buffer.remaining();
+				received.add(buffer);
+			}
+			if (size > limit) {
+				received.clear();
+				subscription.cancel();
+				body.complete(null);
+			}
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			received.clear();
+			body.completeExceptionally(error);
+		}
+
+		@Override
+		public void onComplete() {
+			if (body.isDone()) {
+				return;
+			}
+			byte[] bytes = new byte[(int) size];
+			int offset = 0;
+			for (ByteBuffer buffer : received) {
+				int length = buffer.remaining();
+				buffer.get(bytes, offset, length);
+				offset += length;
+			}
+			received.clear();
+			body.complete(bytes);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a UTF-8 text file through a {@link FileChannel} without
+ * creating a String per line. Large files are memory-mapped a window at a
+ * time, and small files are read into a direct buffer reused by each thread.
+ * Bytes are decoded into a reused {@link CharBuffer}, and each line is exposed
+ * as a range of that buffer which is only valid until the next call to
+ * {@link #nextLine()}. Lines end at "\n", "\r" or "\r\n", as with
+ * {@link java.io.BufferedReader#readLine()}, and malformed input is reported
+ * the same way. This class is not thread-safe.
+ * @author Jackson Raffety
+ * @see TextTokenizer#reset(CharSequence, int, int)
+ */
+public class ChannelLineReader implements Closeable {
+
+	/** Files at least this many bytes long are memory-mapped. */
+	public static final long MAP_THRESHOLD = 1 << 20;
+
+	/** The number of bytes mapped at once for large files. */
+	public static final int WINDOW_SIZE = 1 << 26;
+
+	/** The size of the pooled byte and char buffers. */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/** A direct byte buffer for each thread, absent while in use. */
+	private static final ThreadLocal<ByteBuffer> BYTE_POOL = new ThreadLocal<>();
+
+	/** A char buffer for each thread, absent while in use. */
+	private static final ThreadLocal<CharBuffer> CHAR_POOL = new ThreadLocal<>();
+
+	/** The channel being read. */
+	private final FileChannel channel;
+
+	/** The offset within the file at which to stop reading. */
+	private final long end;
+
+	/** Whether the file is memory-mapped rather than read into a buffer. */
+	private final boolean mapped;
+
+	/** The decoder of UTF-8 bytes, which reports malformed input. */
+	private final CharsetDecoder decoder;
+
+	/** The direct buffer borrowed from the pool, if not mapped. */
+	private final ByteBuffer pooled;
+
+	/** The bytes not yet decoded. */
+	private ByteBuffer bytes;
+
+	/** The offset within the file of the start of the current mapped window. */
+	private long window;
+
+	/** The decoded characters, kept with position 0 and limit {@link #filled}. */
+	private CharBuffer chars;
+
+	/** The number of decoded characters in chars. */
+	private int filled;
+
+	/** The start of the line being scanned. */
+	private int start;
+
+	/** The next character to scan for a line terminator. */
+	private int scan;
+
+	/** The start of the current line. */
+	private int lineStart;
+
+	/** The end (exclusive) of the current line. */
+	private int lineEnd;
+
+	/** Whether a "\n" should be skipped because the last line ended with "\r". */
+	private boolean skipLF;
+
+	/** Whether every byte of the file has been read. */
+	private boolean eof;
+
+	/** Whether every byte of the file has been decoded. */
+	private boolean finished;
+
+	/**
+	 * Opens a file for reading.
+	 * @param path The path of the UTF-8 text file to read.
+	 * @throws IOException if unable to open the file
+	 */
+	public ChannelLineReader(Path path) throws IOException {
+		this(path, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens a range of bytes within a file for reading. The range should start
+	 * at the beginning of a line, so that it does not split a character.
+	 * @param path  The path of the UTF-8 text file to read.
+	 * @param start The offset of the first byte to read.
+	 * @param end   The offset (exclusive) at which to stop reading.
+	 * @throws IOException if unable to open the file
+	 */
+	public ChannelLineReader(Path path, long start, long end) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.end     = Math.min(end, channel.size());
+		this.mapped  = this.end - start >= MAP_THRESHOLD;
+		this.decoder = StandardCharsets.UTF_8.newDecoder();
+		this.window  = start;
+		this.channel.position(start);
+
+		if (mapped) {
+			this.pooled = null;
+			this.bytes  = ByteBuffer.allocate(0);
+		}
+		else {
+			ByteBuffer buffer = BYTE_POOL.get();
+			BYTE_POOL.set(null);
+			this.pooled = buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+			this.bytes  = pooled;
+			this.bytes.clear().limit(0);
+		}
+
+		CharBuffer text = CHAR_POOL.get();
+		CHAR_POOL.set(null);
+		this.chars = text != null ? text : CharBuffer.allocate(BUFFER_SIZE);
+		this.chars.clear().limit(0);
+	}
+
+	/**
+	 * Advances to the next line of the file.
+	 * @return boolean True if there was another line, now available from
+	 *     {@link #buffer()}, {@link #start()} and {@link #end()}.
+	 * @throws IOException if unable to read or decode the file
+	 */
+	public boolean nextLine() throws IOException {
+		while (true) {
+			char[] array = chars.array();
+			if (skipLF && start < filled) {
+				if (array[start] == '\n') {
+					start++;
+				}
+				scan = Math.max(scan, start);
+				skipLF = false;
+			}
+
+			for (int i = scan; i < filled; i++) {
+				char c = array[i];
+				if (c == '\n' || c == '\r') {
+					lineStart = start;
+					lineEnd   = i;
+					start     = i + 1;
+					scan      = start;
+					skipLF    = c == '\r';
+					return true;
+				}
+			}
+			scan = filled;
+
+			if (finished) {
+				if (start < filled) {
+					lineStart = start;
+					lineEnd   = filled;
+					start     = filled;
+					return true;
+				}
+				return false;
+			}
+
+			// keep the unfinished line at the front, growing the buffer if it
+			// lacks room for even a surrogate pair after the line
+			int partial = filled - start;
+			if (chars.capacity() - partial < 2) {
+				CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+				System.arraycopy(array, start, larger.array(), 0, partial);
+				chars = larger;
+			}
+			else {
+				System.arraycopy(array, start, array, 0, partial);
+			}
+			start  = 0;
+			scan   = partial;
+			filled = partial;
+			fill();
+		}
+	}
+
+	/**
+	 * Returns the buffer holding the current line. Its contents are only valid
+	 * until the next call to {@link #nextLine()}.
+	 * @return CharSequence The buffer holding the current line.
+	 */
+	public CharSequence buffer() {
+		return chars;
+	}
+
+	/**
+	 * Returns the start of the current line within {@link #buffer()}.
+	 * @return int The start of the current line.
+	 */
+	public int start() {
+		return lineStart;
+	}
+
+	/**
+	 * Returns the end (exclusive) of the current line within {@link #buffer()}.
+	 * @return int The end of the current line.
+	 */
+	public int end() {
+		return lineEnd;
+	}
+
+	/**
+	 * Decodes as many more characters as fit after the filled part of chars.
+	 * @throws IOException if unable to read or decode the file
+	 */
+	private void fill() throws IOException {
+		chars.limit(chars.capacity()).position(filled);
+		while (chars.hasRemaining() && !finished) {
+			CoderResult result = decoder.decode(bytes, chars, eof);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (result.isOverflow()) {
+				break;
+			}
+			if (eof) {
+				if (decoder.flush(chars).isOverflow()) {
+					break;
+				}
+				finished = true;
+			}
+			else {
+				eof = !readBytes();
+			}
+		}
+		filled = chars.position();
+		chars.position(0).limit(filled);
+	}
+
+	/**
+	 * Makes more undecoded bytes available, keeping any bytes left over from a
+	 * character split across reads.
+	 * @return boolean False if the end of the file has been reached.
+	 * @throws IOException if unable to read the file
+	 */
+	private boolean readBytes() throws IOException {
+		if (mapped) {
+			long offset = window + bytes.position();
+			if (offset >= end) {
+				return false;
+			}
+			window = offset;
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+				offset, Math.min(WINDOW_SIZE, end - offset));
+			bytes = map;
+			return true;
+		}
+
+		long remaining = end - channel.position();
+		if (remaining <= 0) {
+			return false;
+		}
+		bytes.compact();
+		if (bytes.remaining() > remaining) {
+			bytes.limit(bytes.position() + (int) remaining);
+		}
+		int read = channel.read(bytes);
+		bytes.flip();
+		return read >= 0;
+	}
+
+	/**
+	 * Closes the file and returns the borrowed buffers to this thread's pool.
+	 * @throws IOException if unable to close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (pooled != null) {
+			BYTE_POOL.set(pooled);
+		}
+		if (chars.capacity() == BUFFER_SIZE) {
+			CHAR_POOL.set(chars);
+		}
+		channel.close();
+	}
+}
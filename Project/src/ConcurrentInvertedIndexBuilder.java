@@ -1,12 +1,41 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** 
- * A concurrent version of the InvertedIndexBuilder class
+ * A concurrent version of the InvertedIndexBuilder class. Files larger than
+ * {@link #SPLIT_SIZE} are split into ranges of lines which are parsed in
+ * parallel, and their positions rebased onto the words before each range.
+ * Files are parsed in the order they are found, or optionally scheduled by
+ * size once the walk is complete: largest first, so that no large file is
+ * left running alone at the end, with small files batched into single tasks.
+ * Each task is timed, so the makespan of either order can be estimated from
+ * the same build and the two compared.
  * @author Jackson Raffety
  */
 public class ConcurrentInvertedIndexBuilder extends InvertedIndexBuilder {
 
+	/**
+	 * The approximate number of bytes of a file parsed by a single task.
+	 */
+	public static final long SPLIT_SIZE = 1 << 24;
+
+	/**
+	 * The approximate number of bytes of small files parsed by a single task
+	 * when scheduling by size.
+	 */
+	public static final long BATCH_SIZE = 1 << 16;
+
 	/**
 	 * The ThreadSafeInvertedIndex.
 	 */
@@ -17,19 +46,78 @@ public class ConcurrentInvertedIndexBuilder extends InvertedIndexBuilder {
 	 */
 	private final int threads;
 	
+	/**
+	 * Whether files are scheduled by size rather than in the order found.
+	 */
+	private final boolean scheduled;
+	
+	/**
+	 * The WorkQueue of the most recent build.
+	 */
+	private WorkQueue queue;
+	
+	/**
+	 * Nanoseconds the most recent build spent walking before parsing began.
+	 */
+	private long walkTime;
+	
+	/**
+	 * Nanoseconds from the start of parsing to the end of the most recent build.
+	 */
+	private long makespan;
+	
+	/**
+	 * The position in walk order of the next task queued in walk order.
+	 */
+	private AtomicLong queued;
+	
+	/**
+	 * The time taken by each task of the most recent build.
+	 */
+	private ConcurrentLinkedQueue<Timing> timings;
+	
+	/**
+	 * Estimated nanoseconds to parse the tasks of the most recent build in walk
+	 * order.
+	 */
+	private long walkOrderEstimate;
+	
+	/**
+	 * Estimated nanoseconds to parse the tasks of the most recent build largest
+	 * first.
+	 */
+	private long largestFirstEstimate;
+	
 	/**
 	 * Constructs the concurrent inverted index builder.
 	 * @param index   The thread safe inverted index to build.
 	 * @param threads The number of threads to create in the WorkQueue.
 	 */
 	public ConcurrentInvertedIndexBuilder(ThreadSafeInvertedIndex index, int threads) {
+		this(index, threads, false);
+	}
+	
+	/**
+	 * Constructs the concurrent inverted index builder.
+	 * @param index     The thread safe inverted index to build.
+	 * @param threads   The number of threads to create in the WorkQueue.
+	 * @param scheduled Whether to schedule files by size after the walk.
+	 */
+	public ConcurrentInvertedIndexBuilder(ThreadSafeInvertedIndex index,
+		int threads, boolean scheduled)
+	{
 		super(index);
 		this.index = index;
 		this.threads = threads;
+		this.scheduled = scheduled;
 	}
 	
 	/**
-	 * Builds and stems the given InvertedIndex of index using a WorkQueue.
+	 * Builds and stems the given InvertedIndex of index using a bounded WorkQueue.
+	 * Directories are listed in parallel on the same queue and text files are
+	 * queued as they are found, so parsing overlaps with the walk and the walk
+	 * waits whenever it gets too far ahead of the workers. When scheduling by
+	 * size, the walk finishes first and the files are then queued largest first.
 	 * @param startPath The starting path of our pathwalk.
 	 * @throws IOException
 	 * @throws InterruptedException 
@@ -38,12 +126,252 @@ public class ConcurrentInvertedIndexBuilder extends InvertedIndexBuilder {
 	public void buildInvertedIndex(Path startPath)
 		throws IOException, InterruptedException
 	{
-		WorkQueue queue = new WorkQueue(this.threads);
-		for (Path path : getTextFiles(startPath)) {
-			queue.execute(new Task(path));
+		WorkQueue queue = new WorkQueue(this.threads,
+			this.threads * WorkQueue.CAPACITY_PER_THREAD);
+		this.queue = queue;
+		this.queued = new AtomicLong();
+		this.timings = new ConcurrentLinkedQueue<>();
+		long started = System.nanoTime();
+		long parsing = started;
+		try {
+			if (scheduled) {
+				ConcurrentLinkedQueue<SizedTask> found = new ConcurrentLinkedQueue<>();
+				walkTextFiles(startPath, queue, path -> measure(path, found));
+				queue.finish();
+				parsing = System.nanoTime();
+				schedule(new ArrayList<>(found));
+			}
+			else {
+				walkTextFiles(startPath, queue,
+					path -> queue.execute(timed(queued.getAndIncrement(), new Task(path))));
+			}
+		}
+		finally {
+			queue.finish();
+			queue.shutdown();
+			index.publish();
+			this.walkTime = parsing - started;
+			this.makespan = System.nanoTime() - parsing;
+			ArrayList<Timing> timed = new ArrayList<>(timings);
+			this.walkOrderEstimate = estimate(timed,
+				Comparator.comparingLong((Timing timing) -> timing.order));
+			this.largestFirstEstimate = estimate(timed,
+				Comparator.comparingLong((Timing timing) -> timing.nanos).reversed());
+			this.timings = null;
 		}
-		queue.finish();
-		queue.shutdown();
+	}
+	
+	/**
+	 * Returns the WorkQueue metrics of the most recent build.
+	 * @return The metrics, or {@code null} if nothing has been built.
+	 */
+	public WorkQueueStats getStats() {
+		return this.queue == null ? null : this.queue.getStats();
+	}
+	
+	/**
+	 * Returns the time the most recent build spent walking before parsing began,
+	 * which is zero unless scheduling by size.
+	 * @param unit The unit of the returned time.
+	 * @return The walk time.
+	 */
+	public long getWalkTime(TimeUnit unit) {
+		return unit.convert(walkTime, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns the time from the start of parsing until the last task of the most
+	 * recent build finished.
+	 * @param unit The unit of the returned time.
+	 * @return The makespan.
+	 */
+	public long getMakespan(TimeUnit unit) {
+		return unit.convert(makespan, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns the estimated makespan of the most recent build had its tasks been
+	 * queued in the order the walk found them. See
+	 * {@link #estimate(ArrayList, Comparator)} for how it is estimated.
+	 * @param unit The unit of the returned time.
+	 * @return The estimated makespan in walk order.
+	 */
+	public long getWalkOrderEstimate(TimeUnit unit) {
+		return unit.convert(walkOrderEstimate, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns the estimated makespan of the most recent build had its tasks been
+	 * queued largest first. See {@link #estimate(ArrayList, Comparator)} for how
+	 * it is estimated.
+	 * @param unit The unit of the returned time.
+	 * @return The estimated makespan largest first.
+	 */
+	public long getLargestFirstEstimate(TimeUnit unit) {
+		return unit.convert(largestFirstEstimate, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns whether files are scheduled by size rather than in the order found.
+	 * @return boolean True if scheduling by size.
+	 */
+	public boolean isScheduled() {
+		return scheduled;
+	}
+	
+	/**
+	 * Records a file found by the walk along with its size, splitting it into
+	 * ranges if it is large enough that each range should be its own task.
+	 * @param path  The path of the text file.
+	 * @param found The collection of tasks to schedule.
+	 */
+	private void measure(Path path, ConcurrentLinkedQueue<SizedTask> found) {
+		try {
+			long size = Files.size(path);
+			if (size > SPLIT_SIZE && !isCompressed(path)) {
+				long[] offsets = splitFile(path, size);
+				if (offsets.length > 2) {
+					SplitFile split = new SplitFile(offsets.length - 1);
+					for (int i = 0; i + 1 < offsets.length; i++) {
+						found.add(new SizedTask(offsets[i + 1] - offsets[i],
+							new RangeTask(path, offsets[i], offsets[i + 1], i, split), null));
+					}
+					return;
+				}
+			}
+			found.add(new SizedTask(size, null, path));
+		}
+		catch (IOException e) {
+			System.err.println("Thread failure: ConcurrentInvertedIndexBuilder");
+		}
+	}
+	
+	/**
+	 * Queues the given tasks from largest to smallest. Since every worker takes
+	 * the next task as soon as it is free, this spreads the largest tasks first
+	 * and fills the gaps with small ones. Files smaller than {@link #BATCH_SIZE}
+	 * are grouped into batches of about that many bytes.
+	 * @param tasks The tasks to queue.
+	 */
+	private void schedule(ArrayList<SizedTask> tasks) {
+		for (int i = 0; i < tasks.size(); i++) {
+			tasks.get(i).order = i;
+		}
+		tasks.sort(Comparator.comparingLong((SizedTask task) -> task.size).reversed());
+		ArrayList<Path> batch = new ArrayList<>();
+		long batchSize = 0;
+		long batchOrder = Long.MAX_VALUE;
+		for (SizedTask task : tasks) {
+			if (task.task != null) {
+				queue.execute(timed(task.order, task.task));
+			}
+			else if (task.size >= BATCH_SIZE) {
+				queue.execute(timed(task.order, new Task(task.path)));
+			}
+			else {
+				batch.add(task.path);
+				batchSize += task.size;
+				batchOrder = Math.min(batchOrder, task.order);
+				if (batchSize >= BATCH_SIZE) {
+					queue.execute(timed(batchOrder, new BatchTask(batch)));
+					batch = new ArrayList<>();
+					batchSize = 0;
+					batchOrder = Long.MAX_VALUE;
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			queue.execute(timed(batchOrder, new BatchTask(batch)));
+		}
+	}
+	
+	/**
+	 * Wraps a task so that the time it takes is recorded.
+	 * @param order     The position of the task in walk order.
+	 * @param task      The task to time.
+	 * @return Runnable The timed task.
+	 */
+	private Runnable timed(long order, Runnable task) {
+		ConcurrentLinkedQueue<Timing> timings = this.timings;
+		return () -> {
+			long started = System.nanoTime();
+			try {
+				task.run();
+			}
+			finally {
+				timings.add(new Timing(order, System.nanoTime() - started));
+			}
+		};
+	}
+	
+	/**
+	 * Estimates the makespan of a set of timed tasks queued in the given order,
+	 * by handing each in turn to whichever of the threads would be free first,
+	 * as the WorkQueue does. Every task is taken to be queued at once and to
+	 * take as long as it did in the build, so the estimates of two orders from
+	 * the same build may be compared even though only one of them ran. Largest
+	 * first is estimated by the time each task took, which stands in for the
+	 * size used when scheduling.
+	 * @param timed The time taken by each task.
+	 * @param order The order in which the tasks are queued.
+	 * @return long The estimated makespan in nanoseconds.
+	 */
+	private long estimate(ArrayList<Timing> timed, Comparator<Timing> order) {
+		timed.sort(order);
+		PriorityQueue<Long> free = new PriorityQueue<>();
+		for (int i = 0; i < threads; i++) {
+			free.add(0L);
+		}
+		long end = 0;
+		for (Timing timing : timed) {
+			long finished = free.poll() + timing.nanos;
+			free.add(finished);
+			end = Math.max(end, finished);
+		}
+		return end;
+	}
+	
+	/**
+	 * Finds the offsets at which to split a file into ranges of about
+	 * {@link #SPLIT_SIZE} bytes. Each range after the first starts just after a
+	 * newline, so no line or character is split between ranges.
+	 * @param path    The path of the file to split.
+	 * @param size    The size of the file in bytes.
+	 * @return long[] The start of each range, followed by the size of the file.
+	 * @throws IOException
+	 */
+	public static long[] splitFile(Path path, long size) throws IOException {
+		ArrayList<Long> offsets = new ArrayList<>();
+		offsets.add(0L);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+			long next = SPLIT_SIZE;
+			while (next < size) {
+				long boundary = -1;
+				long position = next;
+				while (boundary < 0 && position < size) {
+					buffer.clear();
+					int read = channel.read(buffer, position);
+					if (read < 0) {
+						break;
+					}
+					for (int i = 0; i < read; i++) {
+						if (buffer.get(i) == '\n') {
+							boundary = position + i + 1;
+							break;
+						}
+					}
+					position += read;
+				}
+				if (boundary < 0 || boundary >= size) {
+					break;
+				}
+				offsets.add(boundary);
+				next = boundary + SPLIT_SIZE;
+			}
+		}
+		offsets.add(size);
+		return offsets.stream().mapToLong(Long::longValue).toArray();
 	}
 	
 	/**
@@ -69,6 +397,18 @@ public class ConcurrentInvertedIndexBuilder extends InvertedIndexBuilder {
 		@Override
 		public void run() {
 			try {
+				long size = Files.size(path);
+				if (size > SPLIT_SIZE && !isCompressed(path)) {
+					long[] offsets = splitFile(path, size);
+					if (offsets.length > 2) {
+						SplitFile split = new SplitFile(offsets.length - 1);
+						for (int i = 0; i + 1 < offsets.length; i++) {
+							queue.execute(timed(queued.getAndIncrement(),
+								new RangeTask(path, offsets[i], offsets[i + 1], i, split)));
+						}
+						return;
+					}
+				}
 				InvertedIndex local = new InvertedIndex();
 				parseFile(path, local);
 				index.addAll(local);
@@ -78,4 +418,230 @@ public class ConcurrentInvertedIndexBuilder extends InvertedIndexBuilder {
 			}
 		}
 	}
+	
+	/**
+	 * A task waiting to be scheduled, along with the number of bytes it parses.
+	 */
+	private static class SizedTask {
+		
+		/**
+		 * The number of bytes the task parses.
+		 */
+		private final long size;
+		
+		/**
+		 * The task to run, or null if it is a whole file which may be batched.
+		 */
+		private final Runnable task;
+		
+		/**
+		 * The path of the whole file, or null if the task is a range.
+		 */
+		private final Path path;
+		
+		/**
+		 * The position of the task in the order the walk found it.
+		 */
+		private long order;
+		
+		/**
+		 * Initializes a task waiting to be scheduled.
+		 * @param size The number of bytes the task parses.
+		 * @param task The task to run, or null for a whole file.
+		 * @param path The path of the whole file, or null for a range.
+		 */
+		public SizedTask(long size, Runnable task, Path path) {
+			this.size = size;
+			this.task = task;
+			this.path = path;
+		}
+	}
+	
+	/**
+	 * The time taken by a task of a build.
+	 */
+	private static class Timing {
+		
+		/**
+		 * The position of the task in walk order.
+		 */
+		private final long order;
+		
+		/**
+		 * The nanoseconds the task took.
+		 */
+		private final long nanos;
+		
+		/**
+		 * Initializes the time taken by a task.
+		 * @param order The position of the task in walk order.
+		 * @param nanos The nanoseconds the task took.
+		 */
+		public Timing(long order, long nanos) {
+			this.order = order;
+			this.nanos = nanos;
+		}
+	}
+	
+	/**
+	 * The task class which parses a batch of small files, adding them to the
+	 * index together.
+	 * @author Jackson Raffety
+	 */
+	private class BatchTask implements Runnable {
+		
+		/**
+		 * The paths of the files in the batch.
+		 */
+		private final ArrayList<Path> paths;
+		
+		/**
+		 * The task subclass which assigns a batch of files to a thread.
+		 * @param paths The paths of the files in the batch.
+		 */
+		public BatchTask(ArrayList<Path> paths) {
+			this.paths = paths;
+		}
+		
+		@Override
+		public void run() {
+			InvertedIndex batch = new InvertedIndex();
+			for (Path path : paths) {
+				InvertedIndex local = new InvertedIndex();
+				try {
+					parseFile(path, local);
+					batch.addAll(local);
+				}
+				catch (IOException e) {
+					System.err.println("Thread failure: ConcurrentInvertedIndexBuilder");
+				}
+			}
+			index.addAll(batch);
+		}
+	}
+	
+	/**
+	 * Collects the parsed ranges of a split file. Once every range is parsed,
+	 * each range's positions are shifted by the number of words in the ranges
+	 * before it and the file is added to the index. If any range fails, the
+	 * file is left out entirely, as it would be when parsed whole.
+	 */
+	private class SplitFile {
+		
+		/**
+		 * The local index of each range.
+		 */
+		private final InvertedIndex[] ranges;
+		
+		/**
+		 * The number of words in each range.
+		 */
+		private final int[] words;
+		
+		/**
+		 * The number of ranges not yet parsed.
+		 */
+		private int remaining;
+		
+		/**
+		 * Whether any range failed to parse.
+		 */
+		private boolean failed;
+		
+		/**
+		 * Initializes a split file.
+		 * @param count The number of ranges the file was split into.
+		 */
+		public SplitFile(int count) {
+			this.ranges    = new InvertedIndex[count];
+			this.words     = new int[count];
+			this.remaining = count;
+			this.failed    = false;
+		}
+		
+		/**
+		 * Records a parsed range, adding the file to the index if it was the last.
+		 * @param range The number of the range within the file.
+		 * @param local The local index of the range, or null if it failed.
+		 * @param count The number of words in the range.
+		 */
+		public synchronized void finish(int range, InvertedIndex local, int count) {
+			ranges[range] = local;
+			words[range]  = count;
+			failed |= local == null;
+			if (--remaining > 0 || failed) {
+				return;
+			}
+			int[] offsets = new int[ranges.length];
+			for (int i = 1; i < ranges.length; i++) {
+				offsets[i] = offsets[i - 1] + words[i - 1];
+			}
+			index.addAll(ranges, offsets);
+			Arrays.fill(ranges, null);
+		}
+	}
+	
+	/**
+	 * The task class which parses one range of a split file.
+	 * @author Jackson Raffety
+	 */
+	private class RangeTask implements Runnable {
+		
+		/**
+		 * The path of the split file.
+		 */
+		private final Path path;
+		
+		/**
+		 * The offset of the first byte of the range.
+		 */
+		private final long start;
+		
+		/**
+		 * The offset (exclusive) of the end of the range.
+		 */
+		private final long end;
+		
+		/**
+		 * The number of the range within the file.
+		 */
+		private final int range;
+		
+		/**
+		 * The split file the range belongs to.
+		 */
+		private final SplitFile split;
+		
+		/**
+		 * The task subclass which assigns a range of a file to a thread.
+		 * @param path  The path of the split file.
+		 * @param start The offset of the first byte of the range.
+		 * @param end   The offset (exclusive) of the end of the range.
+		 * @param range The number of the range within the file.
+		 * @param split The split file the range belongs to.
+		 */
+		public RangeTask(Path path, long start, long end, int range, SplitFile split) {
+			this.path  = path;
+			this.start = start;
+			this.end   = end;
+			this.range = range;
+			this.split = split;
+		}
+		
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			int count = 0;
+			try {
+				count = parseRange(path, start, end, local);
+			}
+			catch (IOException e) {
+				System.err.println("Thread failure: ConcurrentInvertedIndexBuilder");
+				local = null;
+			}
+			finally {
+				split.finish(range, local, count);
+			}
+		}
+	}
 }
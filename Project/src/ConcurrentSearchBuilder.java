@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A concurrently-building version of the SearchBuilder class.
@@ -20,15 +21,20 @@ public class ConcurrentSearchBuilder implements SearchBuilderInterface {
 	private final ThreadSafeInvertedIndex index;
 
 	/**
-	 * The completed search results.
+	 * The completed search results, unordered until they are printed.
 	 */
-	private final TreeMap<String, ArrayList<InvertedIndex.SearchResult>> results;
+	private final ConcurrentHashMap<String, ArrayList<InvertedIndex.SearchResult>> results;
 	
 	/**
 	 * The work queue.
 	 */
 	private int threads;
 	
+	/**
+	 * The metrics of the most recent query file's WorkQueue.
+	 */
+	private WorkQueueStats stats;
+	
 	/**
 	 * Constructs the SearchBuilder.
 	 * @param index   The InvertedIndex from which to build a search.
@@ -36,12 +42,13 @@ public class ConcurrentSearchBuilder implements SearchBuilderInterface {
 	 */
 	public ConcurrentSearchBuilder(ThreadSafeInvertedIndex index, int threads) {
 		this.index = index;
-		this.results = new TreeMap<>();
+		this.results = new ConcurrentHashMap<>();
 		this.threads = threads;
 	}
 	
 	/**
 	 * Iterates over the file located at path and parses each line as a query.
+	 * Lines are read only as fast as the bounded WorkQueue can search them.
 	 * @param path  The path at which to search.
 	 * @param exact Whether to perform partial or exact search.
 	 * @throws IOException
@@ -51,18 +58,31 @@ public class ConcurrentSearchBuilder implements SearchBuilderInterface {
 		try (BufferedReader reader = Files.newBufferedReader(path,
 			StandardCharsets.UTF_8))
 		{
-			WorkQueue queue = new WorkQueue(this.threads);
+			WorkQueue queue = new WorkQueue(this.threads,
+				this.threads * WorkQueue.CAPACITY_PER_THREAD);
 			String line;
 			while ((line = reader.readLine()) != null) {
 				queue.execute(new Task(line, exact));
 			}
 			queue.finish();
 			queue.shutdown();
+			this.stats = queue.getStats();
 		}
 	}
 	
 	/**
-	 * Parses a single line and searches the index for the parsed line.
+	 * Returns the WorkQueue metrics of the most recent query file.
+	 * @return The metrics, or {@code null} if no query file has been parsed.
+	 */
+	public WorkQueueStats getStats() {
+		return this.stats;
+	}
+	
+	/**
+	 * Parses a single line and searches the index for the parsed line. A query
+	 * already answered is not searched again, and the search runs outside the
+	 * map so that it never locks out other queries; should the same query be
+	 * searched by two lines at once, the first result stored is kept.
 	 * @param line  The line to clean and search.
 	 * @param exact Whether to perform partial or exact search.
 	 */
@@ -72,32 +92,28 @@ public class ConcurrentSearchBuilder implements SearchBuilderInterface {
 			return;
 		}
 		String joined = String.join(" ", stems);
-		synchronized(this.results) {
-			if (results.containsKey(joined)) {
-				return;
-			}
-		}
-		ArrayList<InvertedIndex.SearchResult> found = this.index.search(stems, exact);
-		synchronized(this.results) {
-			results.put(joined, found);
+		if (!results.containsKey(joined)) {
+			results.putIfAbsent(joined, this.index.search(stems, exact));
 		}
 	}
 	
 	/**
-	 * The prints a pretty JSON view of the completed query.
+	 * The prints a pretty JSON view of the completed query. The results are
+	 * sorted by query once, here, rather than as each query completes.
 	 * @param printPath The path at which to print.
 	 * @throws IOException
 	 */
 	public void printResults(Path printPath) throws IOException {
-		SimpleJsonWriter.asCompletedQuery(this.results, printPath);
+		SimpleJsonWriter.asCompletedQuery(new TreeMap<>(this.results), printPath);
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		for (String key : this.results.keySet()) {
+		TreeMap<String, ArrayList<InvertedIndex.SearchResult>> sorted = new TreeMap<>(this.results);
+		for (String key : sorted.keySet()) {
 			builder.append(key);
-			for (InvertedIndex.SearchResult searchResult : this.results.get(key)) {
+			for (InvertedIndex.SearchResult searchResult : sorted.get(key)) {
 				builder.append(": ");
 				builder.append(searchResult.toString());
 				builder.append("\n");
@@ -0,0 +1,298 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe pool of keep-alive socket connections, keyed by scheme, host
+ * and port. Connections are returned to the pool after a response is fully
+ * read, so later requests to the same server skip the TCP and TLS handshakes.
+ * At most a fixed number of connections are open to each server at once; any
+ * further requests wait for one to be returned. Connections left idle for too
+ * long are closed rather than reused, since the server has likely closed them.
+ * @author Jackson Raffety
+ * @see HttpsFetcher
+ */
+public class ConnectionPool {
+
+	/** The default maximum number of open connections to each server. */
+	public static final int DEFAULT_MAX_PER_HOST = 8;
+
+	/** The default number of milliseconds a connection may sit idle. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 15_000;
+
+	/** The number of milliseconds to wait on a read before giving up. */
+	public static final int SOCKET_TIMEOUT = 30_000;
+
+	/** The connections of each server, keyed by scheme, host and port. */
+	private final HashMap<String, Host> hosts;
+
+	/** The maximum number of open connections to each server. */
+	private final int maxPerHost;
+
+	/** The number of milliseconds a connection may sit idle. */
+	private final long idleTimeout;
+
+	/** The number of connections opened. */
+	private final LongAdder opened;
+
+	/** The number of requests which reused an idle connection. */
+	private final LongAdder reused;
+
+	/**
+	 * Initializes an empty pool.
+	 * @param maxPerHost  The maximum number of open connections to each server.
+	 * @param idleTimeout The number of milliseconds a connection may sit idle.
+	 */
+	public ConnectionPool(int maxPerHost, long idleTimeout) {
+		this.hosts       = new HashMap<>();
+		this.maxPerHost  = maxPerHost;
+		this.idleTimeout = idleTimeout;
+		this.opened      = new LongAdder();
+		this.reused      = new LongAdder();
+	}
+
+	/**
+	 * Initializes an empty pool with the default limits.
+	 */
+	public ConnectionPool() {
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Returns an open connection to the server of the URL, reusing an idle one
+	 * if possible. Waits if the server already has its maximum number of
+	 * connections in use. The connection must be given back with either
+	 * {@link #release(Connection)} or {@link #discard(Connection)}.
+	 * @param url           The URL to connect to.
+	 * @return Connection   A connection to the server of the URL.
+	 * @throws IOException if unable to connect, or interrupted while waiting
+	 */
+	public Connection acquire(URL url) throws IOException {
+		String key = getKey(url);
+		Host host;
+		synchronized (hosts) {
+			host = hosts.computeIfAbsent(key, k -> new Host());
+		}
+
+		synchronized (host) {
+			while (true) {
+				host.evict(System.currentTimeMillis());
+				Connection idle = host.idle.pollLast();
+				if (idle != null) {
+					reused.increment();
+					return idle;
+				}
+				if (host.open < maxPerHost) {
+					host.open++;
+					break;
+				}
+				try {
+					host.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for " + key);
+				}
+			}
+		}
+
+		try {
+			Socket socket = HttpsFetcher.openConnection(url);
+			socket.setSoTimeout(SOCKET_TIMEOUT);
+			opened.increment();
+			return new Connection(host, socket);
+		}
+		catch (IOException e) {
+			synchronized (host) {
+				host.open--;
+				host.notify();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool to be reused. The response it carried
+	 * must have been read in full.
+	 * @param connection The connection to return.
+	 */
+	public void release(Connection connection) {
+		Host host = connection.host;
+		synchronized (host) {
+			connection.lastUsed = System.currentTimeMillis();
+			connection.used = true;
+			host.idle.addLast(connection);
+			host.notify();
+		}
+	}
+
+	/**
+	 * Closes a connection which cannot be reused, making room for another.
+	 * @param connection The connection to close.
+	 */
+	public void discard(Connection connection) {
+		Host host = connection.host;
+		connection.close();
+		synchronized (host) {
+			host.open--;
+			host.notify();
+		}
+	}
+
+	/**
+	 * Closes every idle connection, such as once a crawl is complete.
+	 */
+	public void closeIdle() {
+		synchronized (hosts) {
+			for (Host host : hosts.values()) {
+				synchronized (host) {
+					host.evict(Long.MAX_VALUE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of connections opened.
+	 * @return long The number of connections opened.
+	 */
+	public long getOpened() {
+		return opened.sum();
+	}
+
+	/**
+	 * Returns the number of requests which reused an idle connection.
+	 * @return long The number of reused connections.
+	 */
+	public long getReused() {
+		return reused.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("connections: %d opened, %d reused", getOpened(), getReused());
+	}
+
+	/**
+	 * Returns the key of the server of a URL.
+	 * @param url     The URL whose server to identify.
+	 * @return String The scheme, host and port of the URL.
+	 */
+	private static String getKey(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * The connections to a single server. Guarded by its own monitor.
+	 */
+	private class Host {
+
+		/** The idle connections, from least to most recently used. */
+		private final ArrayDeque<Connection> idle;
+
+		/** The number of open connections, whether idle or in use. */
+		private int open;
+
+		/**
+		 * Initializes a server with no connections.
+		 */
+		public Host() {
+			this.idle = new ArrayDeque<>();
+			this.open = 0;
+		}
+
+		/**
+		 * Closes every idle connection unused since before the idle timeout.
+		 * @param now The current time in milliseconds.
+		 */
+		private void evict(long now) {
+			while (!idle.isEmpty() && now - idle.peekFirst().lastUsed >= idleTimeout) {
+				idle.pollFirst().close();
+				open--;
+			}
+		}
+	}
+
+	/**
+	 * A single socket connection belonging to the pool.
+	 */
+	public static class Connection {
+
+		/** The server the connection belongs to. */
+		private final Host host;
+
+		/** The socket of the connection. */
+		private final Socket socket;
+
+		/** The buffered input of the socket. */
+		private final InputStream input;
+
+		/** The writer of requests to the socket. */
+		private final PrintWriter writer;
+
+		/** When the connection was last returned to the pool. */
+		private long lastUsed;
+
+		/** Whether the connection has carried an earlier response. */
+		private boolean used;
+
+		/**
+		 * Wraps a newly opened socket.
+		 * @param host   The server the connection belongs to.
+		 * @param socket The socket of the connection.
+		 * @throws IOException if unable to get the socket's streams
+		 */
+		private Connection(Host host, Socket socket) throws IOException {
+			this.host   = host;
+			this.socket = socket;
+			this.input  = new BufferedInputStream(socket.getInputStream());
+			this.writer = new PrintWriter(socket.getOutputStream());
+			this.used   = false;
+		}
+
+		/**
+		 * Returns the buffered input of the socket.
+		 * @return InputStream The input of the connection.
+		 */
+		public InputStream getInput() {
+			return input;
+		}
+
+		/**
+		 * Returns the writer of requests to the socket.
+		 * @return PrintWriter The writer of the connection.
+		 */
+		public PrintWriter getWriter() {
+			return writer;
+		}
+
+		/**
+		 * Returns whether the connection has carried an earlier response, in
+		 * which case the server may have closed it while it was idle.
+		 * @return boolean Whether the connection was reused.
+		 */
+		public boolean isReused() {
+			return used;
+		}
+
+		/**
+		 * Closes the socket, ignoring any failure.
+		 */
+		private void close() {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// nothing more can be done with a broken connection
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A checkpoint of a crawl, kept in a local directory as a journal of every
+ * page completed. Each record holds the number the frontier admitted the page
+ * with, its links and its cleaned text, which is null if it could not be
+ * fetched. Since the frontier admits links in breadth-first order however
+ * pages complete, replaying the records rebuilds the frontier, its seen-set
+ * and remaining budget, and the index exactly as they were, so a resumed crawl
+ * only fetches the pages which had not completed.
+ * <p>
+ * Each record is written out as soon as it is added, so the checkpoint survives
+ * the process dying, and the journal is synced to the disk periodically. A
+ * record cut short by a crash is discarded on resume. This class is
+ * thread-safe.
+ * @author Jackson Raffety
+ * @see Crawler
+ * @see CrawlFrontier
+ */
+public class CrawlCheckpoint {
+
+	/** The name of the journal within the checkpoint directory. */
+	public static final String JOURNAL = "crawl.journal";
+
+	/** How often to sync the journal to the disk, in milliseconds. */
+	public static final long SYNC_INTERVAL = 5_000;
+
+	/** Identifies a journal and the version of its format. */
+	private static final int MAGIC = 0x4a524e31;
+
+	/** The path of the journal. */
+	private final Path journal;
+
+	/** The open journal, or null until opened. */
+	private FileOutputStream file;
+
+	/** The writer of records to the journal, or null until opened. */
+	private DataOutputStream output;
+
+	/** When the journal was last synced to the disk, in milliseconds. */
+	private long lastSync;
+
+	/** The number of records written or replayed. */
+	private int records;
+
+	/**
+	 * Initializes a checkpoint within a directory.
+	 * @param directory The directory of the checkpoint.
+	 */
+	public CrawlCheckpoint(Path directory) {
+		this.journal = directory.resolve(JOURNAL);
+	}
+
+	/**
+	 * Replays the journal of a crawl, if any, passing each complete record to
+	 * the crawl in the order written, then opens the journal to add more.
+	 * Without a journal from the same seed and limit, a new one is started.
+	 * @param seed     The seed URL of the crawl.
+	 * @param limit    The limit of the crawl.
+	 * @param replay   What to do with each record, or null to start over.
+	 * @return boolean True if an earlier crawl was resumed.
+	 * @throws IOException if unable to read or open the journal
+	 */
+	public synchronized boolean open(String seed, int limit, Replay replay) throws IOException {
+		Files.createDirectories(journal.getParent());
+		long valid = replay != null && Files.isRegularFile(journal)
+			? replay(seed, limit, replay)
+			: -1;
+
+		if (valid < 0) {
+			file   = new FileOutputStream(journal.toFile());
+			output = new DataOutputStream(new BufferedOutputStream(file));
+			output.writeInt(MAGIC);
+			writeString(seed);
+			output.writeInt(limit);
+			records = 0;
+		}
+		else {
+			try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+			}
+			file   = new FileOutputStream(journal.toFile(), true);
+			output = new DataOutputStream(new BufferedOutputStream(file));
+		}
+		output.flush();
+		lastSync = System.currentTimeMillis();
+		return valid >= 0;
+	}
+
+	/**
+	 * Adds the record of a completed page to the journal.
+	 * @param number The number the frontier admitted the page with.
+	 * @param url    The URL of the page.
+	 * @param links  The links found on the page.
+	 * @param text   The cleaned text of the page, or null if not fetched.
+	 * @throws IOException if unable to write to the journal
+	 */
+	public synchronized void add(int number, String url, List<String> links, String text)
+		throws IOException
+	{
+		output.writeInt(number);
+		writeString(url);
+		output.writeInt(links.size());
+		for (String link : links) {
+			writeString(link);
+		}
+		writeString(text);
+		output.flush();
+		records++;
+
+		long now = System.currentTimeMillis();
+		if (now - lastSync >= SYNC_INTERVAL) {
+			file.getFD().sync();
+			lastSync = now;
+		}
+	}
+
+	/**
+	 * Syncs and closes the journal.
+	 * @throws IOException if unable to write to the journal
+	 */
+	public synchronized void close() throws IOException {
+		if (output != null) {
+			output.flush();
+			file.getFD().sync();
+			output.close();
+			output = null;
+		}
+	}
+
+	/**
+	 * Returns the number of records written or replayed.
+	 * @return int The number of pages checkpointed.
+	 */
+	public synchronized int size() {
+		return records;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("checkpoint: %d pages in %s", records, journal);
+	}
+
+	/**
+	 * Reads each complete record of the journal.
+	 * @param seed     The seed URL of the crawl.
+	 * @param limit    The limit of the crawl.
+	 * @param replay   What to do with each record.
+	 * @return long    The length of the complete records, or -1 if the journal
+	 *     is of a different crawl.
+	 * @throws IOException if unable to read the journal
+	 */
+	private long replay(String seed, int limit, Replay replay) throws IOException {
+		CountingInput counter = new CountingInput(
+			new BufferedInputStream(Files.newInputStream(journal)));
+		try (DataInputStream input = new DataInputStream(counter)) {
+			long valid;
+			try {
+				if (input.readInt() != MAGIC || !seed.equals(readString(input))
+					|| input.readInt() != limit)
+				{
+					System.err.println("Checkpoint is of a different crawl; starting over.");
+					return -1;
+				}
+				valid = counter.count;
+			}
+			catch (EOFException e) {
+				return -1;
+			}
+
+			records = 0;
+			while (true) {
+				int number;
+				String url;
+				ArrayList<String> links;
+				String text;
+				try {
+					number = input.readInt();
+					url    = readString(input);
+					int count = input.readInt();
+					links  = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						links.add(readString(input));
+					}
+					text   = readString(input);
+				}
+				catch (EOFException e) {
+					return valid;
+				}
+				replay.accept(number, url, Collections.unmodifiableList(links), text);
+				valid = counter.count;
+				records++;
+			}
+		}
+	}
+
+	/**
+	 * Writes a String which may be null, of any length.
+	 * @param string The String to write.
+	 * @throws IOException if unable to write to the journal
+	 */
+	private void writeString(String string) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a String written by {@link #writeString(String)}.
+	 * @param input   The input reading the journal.
+	 * @return String The String read, which may be null.
+	 * @throws IOException if unable to read the journal
+	 */
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * An input which counts the bytes read through it.
+	 */
+	private static class CountingInput extends FilterInputStream {
+
+		/** The number of bytes read. */
+		private long count;
+
+		/**
+		 * Wraps an input.
+		 * @param input The input to count.
+		 */
+		public CountingInput(InputStream input) {
+			super(input);
+			this.count = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0) {
+				count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int read = super.read(bytes, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * What to do with each record of a journal replayed.
+	 */
+	@FunctionalInterface
+	public interface Replay {
+
+		/**
+		 * Replays the record of a completed page.
+		 * @param number The number the frontier admitted the page with.
+		 * @param url    The URL of the page.
+		 * @param links  The links found on the page.
+		 * @param text   The cleaned text of the page, or null if not fetched.
+		 * @throws IOException if unable to replay the page
+		 */
+		void accept(int number, String url, List<String> links, String text) throws IOException;
+	}
+}
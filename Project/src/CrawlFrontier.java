@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The frontier of a crawl: the URLs seen so far and the remaining budget of
+ * URLs to fetch. Each URL admitted is numbered in breadth-first order, and the
+ * links found on a page are only admitted once every page numbered before it
+ * has been completed. Pages may be fetched and parsed in any order, but the
+ * URLs admitted are always the first URLs a breadth-first crawl would reach,
+ * no URL is admitted twice, and exactly as many URLs are admitted as the limit
+ * allows.
+ * @author Jackson Raffety
+ * @see Crawler
+ */
+public class CrawlFrontier {
+
+	/** Every URL admitted, for checking without the lock. */
+	private final Set<String> seen;
+
+	/** The total number of URLs to admit. */
+	private final int limit;
+
+	/** The number of URLs which may still be admitted. */
+	private final AtomicInteger budget;
+
+	/** Every URL admitted, indexed by the number it was admitted with. */
+	private final ArrayList<String> admitted;
+
+	/** The links of completed pages still waiting for earlier pages. */
+	private final HashMap<Integer, List<String>> waiting;
+
+	/** The number of the next page whose links may be admitted. */
+	private int next;
+
+	/**
+	 * Initializes an empty frontier.
+	 * @param limit The total number of URLs to admit.
+	 */
+	public CrawlFrontier(int limit) {
+		this.seen     = ConcurrentHashMap.newKeySet();
+		this.limit    = limit;
+		this.budget   = new AtomicInteger(limit);
+		this.admitted = new ArrayList<>();
+		this.waiting  = new HashMap<>();
+		this.next     = 0;
+	}
+
+	/**
+	 * Admits a URL if it has not been seen and the budget allows.
+	 * @param url  The URL to admit.
+	 * @return int The number of the URL, or -1 if not admitted.
+	 */
+	public synchronized int admit(String url) {
+		if (budget.get() <= 0 || !seen.add(url)) {
+			return -1;
+		}
+		budget.decrementAndGet();
+		admitted.add(url);
+		return admitted.size() - 1;
+	}
+
+	/**
+	 * Records the links found on an admitted page, which may be empty if the
+	 * page could not be fetched. Once every earlier page is complete, admits the
+	 * links of this and any later completed pages in order, passing each URL
+	 * admitted and its number to be fetched.
+	 * @param number The number of the completed page.
+	 * @param links  The links found on the page, in the order found.
+	 * @param fetch  The action to take on each URL admitted.
+	 */
+	public void complete(int number, List<String> links, ObjIntConsumer<String> fetch) {
+		if (budget.get() <= 0) {
+			return;
+		}
+		synchronized (this) {
+			waiting.put(number, links);
+			List<String> ready;
+			while ((ready = waiting.remove(next)) != null) {
+				next++;
+				for (String link : ready) {
+					int admittedAs = admit(link);
+					if (admittedAs >= 0) {
+						fetch.accept(link, admittedAs);
+					}
+				}
+			}
+			if (budget.get() <= 0) {
+				waiting.clear();
+			}
+		}
+	}
+
+	/**
+	 * Determines whether a URL has been admitted.
+	 * @param url      The URL to check.
+	 * @return boolean True if the URL has been admitted.
+	 */
+	public boolean isSeen(String url) {
+		return seen.contains(url);
+	}
+
+	/**
+	 * Returns the URL admitted with a number.
+	 * @param number  The number of the URL.
+	 * @return String The URL admitted with that number.
+	 */
+	public synchronized String getUrl(int number) {
+		return admitted.get(number);
+	}
+
+	/**
+	 * Returns the total number of URLs to admit.
+	 * @return int The limit of the crawl.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of URLs which may still be admitted.
+	 * @return int The remaining budget.
+	 */
+	public int getBudget() {
+		return budget.get();
+	}
+
+	/**
+	 * Returns the number of URLs admitted.
+	 * @return int The number of URLs admitted.
+	 */
+	public int size() {
+		return seen.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("frontier: %d admitted, %d budget left, %d pages waiting",
+			admitted.size(), budget.get(), waiting.size());
+	}
+}
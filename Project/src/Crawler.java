@@ -1,17 +1,21 @@
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.stream.Collectors;
-
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A web crawler which searches a seed URL for connecting URLs.
  * These URLs are parsed for their HTML data and an inverted index may
- * be built from this HTML data.
+ * be built from this HTML data. Fetching is I/O-bound and runs on its own
+ * WorkQueue of fetchers, or optionally through an {@link AsyncHtmlFetcher}
+ * which keeps many fetches in flight on a few threads, while cleaning and
+ * stemming run on a WorkQueue sized to the available cores. Optionally, pages
+ * which duplicate an earlier page are found by a {@link DuplicateDetector}
+ * and left out of the index.
  * @author Jackson Raffety
  */
 public class Crawler {
@@ -21,115 +25,346 @@ public class Crawler {
 	private final ThreadSafeInvertedIndex index;
 	
 	/**
-	 * The total number of links to crawl.
+	 * The amount of threads to run for the parsing WorkQueue.
 	 */
-	private volatile int limit;
+	private final int threads;
 	
 	/**
-	 * The amount of threads to run for the WorkQueue.
+	 * The maximum number of fetches allowed in flight at once.
 	 */
-	private final int threads;
+	private final int fetchers;
 	
 	/**
-	 * The set of unique, crawled URLs saved as Strings for easy comparison.
+	 * The URLs seen so far and the budget of URLs left to crawl.
 	 */
-	private HashSet<String> unique;
+	private final CrawlFrontier frontier;
 	
 	/**
-	 * The WorkQueue to execute Tasks.
+	 * The checkpoint of the crawl, or null if not checkpointing.
 	 */
-	private WorkQueue queue;
+	private CrawlCheckpoint checkpoint;
 	
 	/**
-	 * A class-level lock to control access to limit.
+	 * Whether to skip pages which duplicate an earlier page rather than index them.
 	 */
-	private static Object lock;
+	private final boolean dedupe;
 	
 	/**
-	 * Constructs the Crawler class.
+	 * The detector of duplicate pages, or null if not skipping duplicates.
+	 */
+	private DuplicateDetector detector;
+	
+	/**
+	 * The cache of earlier fetches, or null to always fetch pages in full.
+	 */
+	private final HttpCache cache;
+	
+	/**
+	 * The asynchronous fetcher, or null to fetch on the fetch WorkQueue.
+	 */
+	private final AsyncHtmlFetcher asyncFetcher;
+	
+	/**
+	 * The maximum number of fetches running at once against a single host.
+	 */
+	private final int perHost;
+	
+	/**
+	 * The least delay between the starts of fetches to a host, in milliseconds.
+	 */
+	private final long delay;
+	
+	/**
+	 * The scheduler keeping fetches polite to each host.
+	 */
+	private HostScheduler scheduler;
+	
+	/**
+	 * The WorkQueue to execute blocking FetchTasks.
+	 */
+	private WorkQueue fetchQueue;
+	
+	/**
+	 * The WorkQueue to execute CPU-bound ParseTasks.
+	 */
+	private WorkQueue parseQueue;
+	
+	/**
+	 * Number of fetch and parse tasks which have not yet completed.
+	 */
+	private int pending;
+	
+	/** The default number of concurrent fetches when not specified. */
+	public static final int DEFAULT_FETCHERS = 32;
+	
+	/**
+	 * Constructs the Crawler class with the default number of fetchers.
 	 * @param index   The inverted index to build.
 	 * @param limit   The number of unique URLs to crawl.
-	 * @param threads The number of threads for the WorkQueue. 
+	 * @param threads The number of threads for the parsing WorkQueue.
 	 */
 	public Crawler(InvertedIndex index, int limit, int threads) {
-		this.index   = (ThreadSafeInvertedIndex) index;
-		this.limit   = limit;
-		this.threads = threads;
-		this.unique = new HashSet<>();
-		lock = new Object();
+		this(index, limit, threads, DEFAULT_FETCHERS);
+	}
+	
+	/**
+	 * Constructs the Crawler class.
+	 * @param index    The inverted index to build.
+	 * @param limit    The number of unique URLs to crawl.
+	 * @param threads  The number of threads for the parsing WorkQueue.
+	 * @param fetchers The number of fetches allowed in flight at once.
+	 */
+	public Crawler(InvertedIndex index, int limit, int threads, int fetchers) {
+		this(index, limit, threads, fetchers, false);
+	}
+	
+	/**
+	 * Constructs the Crawler class.
+	 * @param index    The inverted index to build.
+	 * @param limit    The number of unique URLs to crawl.
+	 * @param threads  The number of threads for the parsing WorkQueue.
+	 * @param fetchers The number of fetches allowed in flight at once.
+	 * @param async    Whether to fetch asynchronously rather than on a thread
+	 *     per fetch.
+	 */
+	public Crawler(InvertedIndex index, int limit, int threads, int fetchers,
+		boolean async)
+	{
+		this(index, limit, threads, fetchers, async,
+			HostScheduler.DEFAULT_MAX_PER_HOST, HostScheduler.DEFAULT_DELAY);
+	}
+	
+	/**
+	 * Constructs the Crawler class.
+	 * @param index    The inverted index to build.
+	 * @param limit    The number of unique URLs to crawl.
+	 * @param threads  The number of threads for the parsing WorkQueue.
+	 * @param fetchers The number of fetches allowed in flight at once.
+	 * @param async    Whether to fetch asynchronously rather than on a thread
+	 *     per fetch.
+	 * @param perHost  The number of fetches allowed in flight at once against
+	 *     a single host.
+	 * @param delay    The least delay between the starts of fetches to a host,
+	 *     in milliseconds.
+	 */
+	public Crawler(InvertedIndex index, int limit, int threads, int fetchers,
+		boolean async, int perHost, long delay)
+	{
+		this(index, limit, threads, fetchers, async, perHost, delay, false);
+	}
+	
+	/**
+	 * Constructs the Crawler class.
+	 * @param index    The inverted index to build.
+	 * @param limit    The number of unique URLs to crawl.
+	 * @param threads  The number of threads for the parsing WorkQueue.
+	 * @param fetchers The number of fetches allowed in flight at once.
+	 * @param async    Whether to fetch asynchronously rather than on a thread
+	 *     per fetch.
+	 * @param perHost  The number of fetches allowed in flight at once against
+	 *     a single host.
+	 * @param delay    The least delay between the starts of fetches to a host,
+	 *     in milliseconds.
+	 * @param dedupe   Whether to skip pages which duplicate an earlier page
+	 *     rather than index them.
+	 */
+	public Crawler(InvertedIndex index, int limit, int threads, int fetchers,
+		boolean async, int perHost, long delay, boolean dedupe)
+	{
+		this(index, limit, threads, fetchers, async, perHost, delay, dedupe, null);
+	}
+	
+	/**
+	 * Constructs the Crawler class.
+	 * @param index    The inverted index to build.
+	 * @param limit    The number of unique URLs to crawl.
+	 * @param threads  The number of threads for the parsing WorkQueue.
+	 * @param fetchers The number of fetches allowed in flight at once.
+	 * @param async    Whether to fetch asynchronously rather than on a thread
+	 *     per fetch.
+	 * @param perHost  The number of fetches allowed in flight at once against
+	 *     a single host.
+	 * @param delay    The least delay between the starts of fetches to a host,
+	 *     in milliseconds.
+	 * @param dedupe   Whether to skip pages which duplicate an earlier page
+	 *     rather than index them.
+	 * @param cache    The cache of earlier fetches, or null to always fetch
+	 *     pages in full.
+	 */
+	public Crawler(InvertedIndex index, int limit, int threads, int fetchers,
+		boolean async, int perHost, long delay, boolean dedupe, HttpCache cache)
+	{
+		this.index    = (ThreadSafeInvertedIndex) index;
+		this.frontier = new CrawlFrontier(limit);
+		this.threads  = threads;
+		this.fetchers = fetchers;
+		this.perHost  = perHost;
+		this.delay    = delay;
+		this.dedupe   = dedupe;
+		this.cache    = cache;
+		this.pending  = 0;
+		this.asyncFetcher = async
+			? new AsyncHtmlFetcher(fetchers, Math.max(1, threads / 4), cache)
+			: null;
 	}
 	
 	/**
-	 * Crawls from a seed URL and finds other URLs within that seed URL before parsing
-	 * the HTML content of the seed URL.
+	 * Crawls from a seed URL, fetching the seed and every URL discovered from it
+	 * until the limit is reached, and adds the HTML content of each to the index.
 	 * @param seed      The seed URL.
 	 * @param redirects How many redirects to take, if necessary.
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
 	public void initCrawl(String seed, int redirects) throws IOException, InterruptedException {
-		URL seedUrl        = LinkParser.clean(new URL(seed));
-		String dirtyHtml   = HtmlFetcher.fetch(seed, redirects);
-		String cleanedHtml = HtmlCleaner.stripBlockElements(dirtyHtml);
-		ArrayList<String> discovered = new ArrayList<>();
+		initCrawl(seed, redirects, null, false);
+	}
+	
+	/**
+	 * Crawls from a seed URL, fetching the seed and every URL discovered from it
+	 * until the limit is reached, and adds the HTML content of each to the index.
+	 * Each page completed is added to a checkpoint in a directory, if given. When
+	 * resuming, the pages of a checkpoint of the same crawl are added to the index
+	 * and frontier instead of being fetched again, and the crawl continues from
+	 * the pages which had not completed.
+	 * @param seed       The seed URL.
+	 * @param redirects  How many redirects to take, if necessary.
+	 * @param checkpoint The directory of the checkpoint, or null for none.
+	 * @param resume     Whether to resume from the checkpoint rather than start over.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void initCrawl(String seed, int redirects, Path checkpoint, boolean resume)
+		throws IOException, InterruptedException
+	{
+		String seedUrl  = LinkParser.clean(new URL(seed)).toString();
+		this.fetchQueue = asyncFetcher == null ? new WorkQueue(this.fetchers) : null;
+		this.parseQueue = new WorkQueue(this.threads);
+		WorkQueue fetches = fetchQueue != null ? fetchQueue : parseQueue;
+		this.scheduler  = new HostScheduler(fetches::execute, perHost, delay);
+		this.detector   = dedupe ? new DuplicateDetector(this::indexLater) : null;
 		
-		/** Get an in sequence, unique list of URLs **/
-		discovered.add(seedUrl.toString());
-		discovered.addAll(LinkParser.listLinks(seedUrl, cleanedHtml));
-		discovered = (ArrayList<String>) discovered.stream().distinct().collect(Collectors.toList());
-		this.unique.addAll(discovered);
+		frontier.admit(seedUrl);
+		BitSet completed = new BitSet();
+		if (checkpoint != null) {
+			this.checkpoint = new CrawlCheckpoint(checkpoint);
+			this.checkpoint.open(seedUrl, frontier.getLimit(), !resume ? null : (number, url, links, text) -> {
+				if (number >= frontier.size() || !frontier.getUrl(number).equals(url)) {
+					throw new IOException("Checkpoint does not match the crawl at " + url);
+				}
+				if (detector != null) {
+					dedupe(number, url, text);
+				}
+				else if (text != null) {
+					addToIndex(url, text);
+				}
+				frontier.complete(number, links, (link, admitted) -> { });
+				completed.set(number);
+			});
+		}
 		
-		/** Start the queue and iterate over unique**/
-		this.queue = new WorkQueue(this.threads);
-		Iterator<String> iter = discovered.iterator();
+		for (int number = 0; number < frontier.size(); number++) {
+			if (!completed.get(number)) {
+				fetchLater(frontier.getUrl(number), number, redirects);
+			}
+		}
 		
-		while (iter.hasNext() && limit > 0) {
-			limit--;
-			String found = iter.next();
-			this.queue.execute(new Task(found, redirects));
+		finish();
+		if (fetchQueue != null) {
+			this.fetchQueue.shutdown();
+		}
+		else {
+			this.asyncFetcher.shutdown();
 		}
-		this.queue.finish();
-		this.queue.shutdown();
-		cleanedHtml = HtmlCleaner.stripTags(cleanedHtml);
-		cleanedHtml = HtmlCleaner.stripEntities(cleanedHtml);
-		parseLine(seedUrl.toString(), cleanedHtml, this.index);
+		this.parseQueue.shutdown();
+		HttpsFetcher.POOL.closeIdle();
+		if (this.checkpoint != null) {
+			this.checkpoint.close();
+		}
+		this.index.publish();
 	}
 	
 	/**
-	 * Crawls from a seed URL and finds other URLs within that seed URL before parsing
-	 * the HTML content of the seed URL.
-	 * @param seed      The seed URL.
+	 * Scans fetched HTML in a single pass, hands its links to the frontier to be
+	 * fetched in breadth-first order while the limit allows, and returns the
+	 * cleaned text.
+	 * @param seed      The URL the HTML was fetched from.
+	 * @param number    The number the frontier admitted the URL with.
+	 * @param dirtyHtml The fetched HTML.
 	 * @param redirects How many redirects to take, if necessary.
 	 * @return The cleaned html.
 	 * @throws IOException
 	 */
-	public String crawl(String seed, int redirects) throws IOException {
-		URL url            = LinkParser.clean(new URL(seed));
-		String dirtyHtml   = HtmlFetcher.fetch(url, redirects);
-		String cleanedHtml = HtmlCleaner.stripBlockElements(dirtyHtml);
-		ArrayList<String> discovered = LinkParser.listLinks(url, cleanedHtml);
-		discovered = (ArrayList<String>) discovered.stream().distinct().collect(Collectors.toList());//
-		HashSet<String> local = new HashSet<>(discovered);
-		if (limit > 0) {
-			for (String foundUrl : local) {
-				synchronized(unique) {
-					if (unique.contains(foundUrl)) {
-						local.remove(foundUrl);
-						continue;
-					}
-				}
-			}
-			Iterator<String> iter = local.iterator();
-			synchronized(lock) {
-				while (iter.hasNext() && limit > 0) {
-					queue.execute(new Task(iter.next(), redirects));
-					limit--;
-				}
-			}
-		}
-		cleanedHtml = HtmlCleaner.stripTags(cleanedHtml);
-		cleanedHtml = HtmlCleaner.stripEntities(cleanedHtml);
-		return cleanedHtml;
+	public String crawl(String seed, int number, String dirtyHtml, int redirects) throws IOException {
+		URL url             = LinkParser.clean(new URL(seed));
+		HtmlScanner scanner = new HtmlScanner().scan(dirtyHtml);
+		ArrayList<String> discovered = LinkParser.resolveLinks(url, scanner.getHrefs());
+		complete(number, seed, discovered, scanner.getText(), redirects);
+		return scanner.getText();
+	}
+	
+	/**
+	 * Returns the frontier of the crawl.
+	 * @return The URLs seen and the budget left.
+	 */
+	public CrawlFrontier getFrontier() {
+		return frontier;
+	}
+	
+	/**
+	 * Returns the checkpoint of the crawl, if checkpointing.
+	 * @return The checkpoint, or {@code null} if not in use.
+	 */
+	public CrawlCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+	
+	/**
+	 * Returns the cache of earlier fetches, if fetching through one.
+	 * @return The cache, or {@code null} if not in use.
+	 */
+	public HttpCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Returns the detector of duplicate pages, if skipping duplicates.
+	 * @return The detector, or {@code null} if not in use.
+	 */
+	public DuplicateDetector getDetector() {
+		return detector;
+	}
+	
+	/**
+	 * Returns the scheduler keeping fetches polite to each host.
+	 * @return The scheduler, or {@code null} if no crawl has started.
+	 */
+	public HostScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Returns the metrics of the fetch WorkQueue.
+	 * @return The metrics, or {@code null} if no crawl has started.
+	 */
+	public WorkQueueStats getFetchStats() {
+		return fetchQueue == null ? null : fetchQueue.getStats();
+	}
+	
+	/**
+	 * Returns the asynchronous fetcher, if fetching asynchronously.
+	 * @return The asynchronous fetcher, or {@code null} if not in use.
+	 */
+	public AsyncHtmlFetcher getAsyncFetcher() {
+		return asyncFetcher;
+	}
+	
+	/**
+	 * Returns the metrics of the parse WorkQueue.
+	 * @return The metrics, or {@code null} if no crawl has started.
+	 */
+	public WorkQueueStats getParseStats() {
+		return parseQueue == null ? null : parseQueue.getStats();
 	}
 	
 	/**
@@ -142,9 +377,239 @@ public class Crawler {
 	 */
 	public static void parseLine(String url, String line, InvertedIndex index) throws IOException {
 		int counter = 1;
-		SnowballStemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-		for (String word : TextParser.parse(line)) {
-			index.add(TextFileStemmer.stemWord(word, stemmer), url, counter++);
+		TextTokenizer tokenizer = new TextTokenizer().reset(line);
+		while (tokenizer.next()) {
+			index.add(TextFileStemmer.stemWord(tokenizer.token()), url, counter++);
+		}
+	}
+	
+	/**
+	 * Adds the words of a page's cleaned text to the index.
+	 * @param url  The URL of the page.
+	 * @param text The cleaned text of the page.
+	 * @throws IOException
+	 */
+	private void addToIndex(String url, String text) throws IOException {
+		InvertedIndex local = new InvertedIndex();
+		parseLine(InvertedIndexBuilder.LOCATIONS.intern(url), text, local);
+		index.addAll(local);
+	}
+	
+	/**
+	 * Submits a completed page to the detector of duplicates, to be added to the
+	 * index by the parse WorkQueue unless it duplicates an earlier page.
+	 * @param number The number the frontier admitted the page with.
+	 * @param url    The URL of the page.
+	 * @param text   The cleaned text of the page, or null if not fetched.
+	 */
+	private void dedupe(int number, String url, String text) {
+		detector.submit(number, url, text, () -> {
+			try {
+				addToIndex(url, text);
+			}
+			catch (IOException e) {
+				System.err.println("Thread failure: Crawler");
+			}
+		});
+	}
+	
+	/**
+	 * Queues a task on the parse WorkQueue, counting it as pending until done.
+	 * @param task The task to run.
+	 */
+	private void indexLater(Runnable task) {
+		incrementPending();
+		parseQueue.execute(() -> {
+			try {
+				task.run();
+			}
+			finally {
+				decrementPending();
+			}
+		});
+	}
+	
+	/**
+	 * Schedules a URL to be fetched once its host allows, either by the fetch
+	 * WorkQueue or asynchronously, and to be parsed once fetched.
+	 * @param url       The URL to fetch.
+	 * @param number    The number the frontier admitted the URL with.
+	 * @param redirects The number of acceptable redirects to follow.
+	 */
+	private void fetchLater(String url, int number, int redirects) {
+		incrementPending();
+		Runnable skip = () -> {
+			complete(number, url, Collections.emptyList(), null, redirects);
+			decrementPending();
+		};
+		try {
+			scheduler.execute(new URL(url), release -> {
+				if (asyncFetcher == null) {
+					new FetchTask(url, number, redirects, release).run();
+				}
+				else {
+					fetchAsync(url, number, redirects, release);
+				}
+			}, skip);
+		}
+		catch (MalformedURLException e) {
+			skip.run();
+		}
+	}
+	
+	/**
+	 * Starts fetching a URL asynchronously, and queues it to be parsed once
+	 * fetched.
+	 * @param url       The URL to fetch.
+	 * @param number    The number the frontier admitted the URL with.
+	 * @param redirects The number of acceptable redirects to follow.
+	 * @param release   What to run once done with the URL's host.
+	 */
+	private void fetchAsync(String url, int number, int redirects, Runnable release) {
+		asyncFetcher.fetch(url, redirects).whenComplete((html, error) -> {
+			release.run();
+			if (error != null) {
+				System.err.println("Thread failure: Crawler fetch of " + url);
+			}
+			if (html != null) {
+				parseLater(url, number, html, redirects);
+			}
+			else {
+				complete(number, url, Collections.emptyList(), null, redirects);
+			}
+			decrementPending();
+		});
+	}
+
+	
+	/**
+	 * Queues fetched HTML to be cleaned and indexed by the parse WorkQueue.
+	 * @param url       The URL the HTML was fetched from.
+	 * @param number    The number the frontier admitted the URL with.
+	 * @param html      The fetched HTML.
+	 * @param redirects The number of acceptable redirects to follow.
+	 */
+	private void parseLater(String url, int number, String html, int redirects) {
+		incrementPending();
+		parseQueue.execute(new ParseTask(url, number, html, redirects));
+	}
+	
+	/**
+	 * Adds a page to the checkpoint, if any, submits it to the detector of
+	 * duplicates, if any, and hands its links to the frontier, fetching each URL
+	 * it admits. Must be called exactly once for every URL
+	 * admitted, even if it could not be fetched, or the frontier will hold back
+	 * the links of later pages.
+	 * @param number    The number the frontier admitted the page with.
+	 * @param url       The URL of the page.
+	 * @param links     The links found on the page.
+	 * @param text      The cleaned text of the page, or null if not fetched.
+	 * @param redirects The number of acceptable redirects to follow.
+	 */
+	private void complete(int number, String url, List<String> links, String text, int redirects) {
+		if (checkpoint != null) {
+			try {
+				checkpoint.add(number, url, links, text);
+			}
+			catch (IOException e) {
+				System.err.println("Unable to checkpoint " + url);
+			}
+		}
+		if (detector != null) {
+			dedupe(number, url, text);
+		}
+		frontier.complete(number, links, (link, admitted) -> fetchLater(link, admitted, redirects));
+	}
+	
+	/**
+	 * Waits until every fetch and parse task, including any tasks they queue, has
+	 * completed.
+	 * @throws InterruptedException
+	 */
+	private synchronized void finish() throws InterruptedException {
+		while (pending > 0) {
+			this.wait();
+		}
+	}
+	
+	/**
+	 * Safely increments the shared pending variable.
+	 */
+	private synchronized void incrementPending() {
+		pending++;
+	}
+	
+	/**
+	 * Safely decrements the shared pending variable, and wakes up any threads
+	 * waiting for the crawl to be completed.
+	 */
+	private synchronized void decrementPending() {
+		pending--;
+		if (pending == 0) {
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * The task class to fetch the HTML from a single URL.
+	 * @author Jackson Raffety
+	 *
+	 */
+	private class FetchTask implements Runnable {
+		
+		/**
+		 * The URL to fetch.
+		 */
+		private String url;
+		
+		/**
+		 * The number the frontier admitted the URL with.
+		 */
+		private int number;
+
+		/**
+		 * The acceptable number of redirects to be followed.
+		 */
+		private int redirects;
+		
+		/**
+		 * What to run once done with the URL's host.
+		 */
+		private Runnable release;
+		
+		/**
+		 * The task subclass which assigns a fetch to a thread.
+		 * @param url       The url to fetch.
+		 * @param number    The number the frontier admitted the url with.
+		 * @param redirects The number of acceptable redirects to follow.
+		 * @param release   What to run once done with the url's host.
+		 */
+		public FetchTask(String url, int number, int redirects, Runnable release) {
+			this.url = url;
+			this.number = number;
+			this.redirects = redirects;
+			this.release = release;
+		}
+
+		@Override
+		public void run() {
+			String html = null;
+			try {
+				html = HtmlFetcher.fetch(url, redirects, cache);
+			}
+			catch (IOException e) {
+				System.err.println("Thread failure: Crawler fetch of " + url);
+			}
+			finally {
+				release.run();
+				if (html != null) {
+					parseLater(url, number, html, redirects);
+				}
+				else {
+					complete(number, url, Collections.emptyList(), null, redirects);
+				}
+				decrementPending();
+			}
 		}
 	}
 	
@@ -153,12 +618,22 @@ public class Crawler {
 	 * @author Jackson Raffety
 	 *
 	 */
-	private class Task implements Runnable {
+	private class ParseTask implements Runnable {
 		
 		/**
 		 * The URL from which to build.
 		 */
 		private String url;
+		
+		/**
+		 * The number the frontier admitted the URL with.
+		 */
+		private int number;
+		
+		/**
+		 * The fetched HTML of the URL.
+		 */
+		private String html;
 
 		/**
 		 * The acceptable number of redirects to be followed.
@@ -168,26 +643,35 @@ public class Crawler {
 		/**
 		 * The task subclass which assigns a job to a thread.
 		 * @param url       The url at which to begin building the InvertedIndex.
+		 * @param number    The number the frontier admitted the url with.
+		 * @param html      The fetched HTML of the url.
 		 * @param redirects The number of acceptable redirects to follow.
-		 * @throws MalformedURLException 
 		 */
-		public Task(String url, int redirects) throws MalformedURLException {
+		public ParseTask(String url, int number, String html, int redirects) {
 			this.url = url;
+			this.number = number;
+			this.html = html;
 			this.redirects = redirects;
 		}
 
 		@Override
 		public void run() {
 			try {
-				InvertedIndex local = new InvertedIndex();
-				String html = crawl(url, redirects);
-				if (html != null) {
-					parseLine(url, html, local);
+				String cleaned = crawl(url, number, html, redirects);
+				if (detector == null) {
+					addToIndex(url, cleaned);
 				}
-				index.addAll(local);
+			}
+			catch (MalformedURLException e) {
+				// crawl failed before completing the url, so it must be completed here
+				System.err.println("Thread failure: Crawler");
+				complete(number, url, Collections.emptyList(), null, redirects);
 			}
 			catch (IOException e) {
-				System.err.println("Thread failure: ConcurrentInvertedIndexBuilder");
+				System.err.println("Thread failure: Crawler");
+			}
+			finally {
+				decrementPending();
 			}
 		}
 	}
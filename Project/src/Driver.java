@@ -2,6 +2,8 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class responsible for running this project based on the provided command-line
@@ -22,14 +24,41 @@ public class Driver {
 		String thrdFlag       = "-threads";
 		String limitFlag      = "-limit";
 		String urlFlag        = "-url";
+		String fetchFlag      = "-fetchers";
+		String statsFlag      = "-stats";
+		String pipeFlag       = "-pipeline";
+		String schedFlag      = "-schedule";
+		String stopFlag       = "-stopwords";
+		String dfFlag         = "-maxdf";
+		String asyncFlag      = "-async";
+		String hostFlag       = "-perhost";
+		String delayFlag      = "-delay";
+		String pointFlag      = "-checkpoint";
+		String resumeFlag     = "-resume";
+		String dedupeFlag     = "-dedupe";
+		String dupFlag        = "-duplicates";
+		String cacheFlag      = "-cache";
+		String readFlag       = "-readers";
+		String stemFlag       = "-stemmers";
+		String mergeFlag      = "-mergers";
 		String defaultCounts  = "counts.json";
 		String defaultIndex   = "index.json";
 		String defaultThreads = "5";
 		String defaultURL     = "default";
 		String defaultLimit   = "50";
+		String defaultPoint   = "checkpoint";
+		String defaultDups    = "duplicates.json";
+		String defaultCache   = "cache";
+		String defaultCores   = String.valueOf(Runtime.getRuntime().availableProcessors());
 		int defaultRedirect   = 3;
 		int limit;
 		int threads;
+		int fetchers;
+		int perHost;
+		int readers;
+		int stemmers;
+		int mergers;
+		long delay;
 		
 		// Store initial start time.
 		Instant start = Instant.now();
@@ -42,13 +71,18 @@ public class Driver {
 		InvertedIndex index;
 		InvertedIndexBuilder indexBuilder;
 		SearchBuilderInterface searchBuilder;
+		Crawler crawler = null;
+		HttpCache cache = null;
 		
 		/** Parse Args. **/
 		parser.parse(args);
 		
 		/** Preprocess Multithreading/URL Parsing Behavior **/
-		String threadNo = parser.hasFlag(urlFlag) ? "5" : parser.getString(thrdFlag, defaultThreads);
-		String limitNo  = parser.getString(limitFlag, defaultLimit);
+		String threadNo  = parser.getString(thrdFlag, parser.hasFlag(urlFlag) ? defaultCores : defaultThreads);
+		String limitNo   = parser.getString(limitFlag, defaultLimit);
+		String fetcherNo = parser.getString(fetchFlag, String.valueOf(Crawler.DEFAULT_FETCHERS));
+		String perHostNo = parser.getString(hostFlag, String.valueOf(HostScheduler.DEFAULT_MAX_PER_HOST));
+		String delayNo   = parser.getString(delayFlag, String.valueOf(HostScheduler.DEFAULT_DELAY));
 		
 		/** Validate threadNo **/
 		try {
@@ -70,10 +104,76 @@ public class Driver {
 			limit = 50;
 		}
 		
-		/** Determine Multithreaded Behavior **/
-		if (parser.hasFlag(thrdFlag) || parser.hasFlag(urlFlag)) {
-			index         = new ThreadSafeInvertedIndex();
-			indexBuilder  = new ConcurrentInvertedIndexBuilder((ThreadSafeInvertedIndex) index, threads);
+		/** Validate fetcherNo **/
+		try {
+			fetchers = Integer.parseInt(fetcherNo);
+			if (fetchers < 1) {
+				fetchers = Crawler.DEFAULT_FETCHERS;
+			}
+		} catch (NumberFormatException e) {
+			fetchers = Crawler.DEFAULT_FETCHERS;
+		}
+		
+		/** Validate perHostNo **/
+		try {
+			perHost = Integer.parseInt(perHostNo);
+			if (perHost < 1) {
+				perHost = HostScheduler.DEFAULT_MAX_PER_HOST;
+			}
+		} catch (NumberFormatException e) {
+			perHost = HostScheduler.DEFAULT_MAX_PER_HOST;
+		}
+		
+		/** Validate delayNo **/
+		try {
+			delay = Long.parseLong(delayNo);
+			if (delay < 0) {
+				delay = HostScheduler.DEFAULT_DELAY;
+			}
+		} catch (NumberFormatException e) {
+			delay = HostScheduler.DEFAULT_DELAY;
+		}
+		
+		/** Validate the pipeline stage sizes, which default to fractions of threads **/
+		String stageNo = String.valueOf(Math.max(1, threads / 4));
+		try {
+			readers = Integer.parseInt(parser.getString(readFlag, stageNo));
+			if (readers < 1) {
+				readers = Math.max(1, threads / 4);
+			}
+		} catch (NumberFormatException e) {
+			readers = Math.max(1, threads / 4);
+		}
+		
+		try {
+			stemmers = Integer.parseInt(parser.getString(stemFlag, String.valueOf(threads)));
+			if (stemmers < 1) {
+				stemmers = threads;
+			}
+		} catch (NumberFormatException e) {
+			stemmers = threads;
+		}
+		
+		try {
+			mergers = Integer.parseInt(parser.getString(mergeFlag, stageNo));
+			if (mergers < 1) {
+				mergers = Math.max(1, threads / 4);
+			}
+		} catch (NumberFormatException e) {
+			mergers = Math.max(1, threads / 4);
+		}
+		
+		/** Determine Multithreaded Behavior, which the scheduling flags imply **/
+		boolean multithreaded = parser.hasFlag(thrdFlag) || parser.hasFlag(urlFlag)
+			|| parser.hasFlag(pipeFlag) || parser.hasFlag(schedFlag)
+			|| parser.hasFlag(readFlag) || parser.hasFlag(stemFlag) || parser.hasFlag(mergeFlag);
+		if (multithreaded) {
+			index         = new ThreadSafeInvertedIndex(ThreadSafeInvertedIndex.DEFAULT_BATCH);
+			indexBuilder  = parser.hasFlag(pipeFlag)
+				? new PipelinedInvertedIndexBuilder((ThreadSafeInvertedIndex) index,
+					readers, stemmers, mergers)
+				: new ConcurrentInvertedIndexBuilder((ThreadSafeInvertedIndex) index,
+					threads, parser.hasFlag(schedFlag));
 			searchBuilder = new ConcurrentSearchBuilder((ThreadSafeInvertedIndex) index, threads);
 		}
 		
@@ -84,11 +184,39 @@ public class Driver {
 			searchBuilder = new SearchBuilder(index);
 		}
 
+		/** Check for optional -stopwords flag. **/
+		try {
+			if (parser.hasFlag(stopFlag)) {
+				// An empty stopword file has no stems, which uniqueStems returns as null
+				TreeSet<String> stopwords = TextFileStemmer.uniqueStems(parser.getPath(stopFlag));
+				if (stopwords != null) {
+					index.addStopwords(stopwords);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Given path from which to read -stopwords is invalid.");
+		} catch (NullPointerException np) {
+			System.err.println("Given path from which to read -stopwords is absent.");
+		}
+
+		/** Check for optional -cache flag. **/
+		try {
+			if (parser.hasFlag(cacheFlag) && parser.hasFlag(urlFlag)) {
+				cache = new HttpCache(parser.getPath(cacheFlag, defaultCache));
+			}
+		} catch (IOException e) {
+			System.err.println("Given path at which to keep the -cache is invalid.");
+		}
+
 		/** Build the list of paths to construct the inverted index. **/
 		try {
 			if (parser.hasFlag(urlFlag)) {
-				Crawler crawler = new Crawler(index, limit, threads);
-				crawler.initCrawl(parser.getString(urlFlag, defaultURL), defaultRedirect);
+				crawler = new Crawler(index, limit, threads, fetchers, parser.hasFlag(asyncFlag),
+					perHost, delay, parser.hasFlag(dedupeFlag) || parser.hasFlag(dupFlag), cache);
+				boolean resume = parser.hasFlag(resumeFlag);
+				crawler.initCrawl(parser.getString(urlFlag, defaultURL), defaultRedirect,
+					parser.hasFlag(pointFlag) || resume ? parser.getPath(pointFlag, defaultPoint) : null,
+					resume);
 			}
 			else {
 				indexBuilder.buildInvertedIndex(parser.getPath("-path"));
@@ -101,6 +229,21 @@ public class Driver {
 			System.err.println("Thread interrupted while building the index.");
 		}
 
+		/** Check for optional -maxdf flag. **/
+		if (parser.hasFlag(dfFlag)) {
+			try {
+				double maxFrequency = Double.parseDouble(parser.getString(dfFlag, ""));
+				if (maxFrequency > 0 && maxFrequency <= 1) {
+					index.prune(maxFrequency);
+				}
+				else {
+					System.err.println("Given -maxdf must be a fraction between 0 and 1.");
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Given -maxdf must be a fraction between 0 and 1.");
+			}
+		}
+
 		/** Check for optional -index flag. **/
 		try {
 			if (parser.hasFlag(indFlag)) {
@@ -121,6 +264,16 @@ public class Driver {
 			System.err.println("Given path at which to write -counts is invalid.");
 		}
 		
+		/** Check for optional -duplicates flag. **/
+		try {
+			if (parser.hasFlag(dupFlag) && crawler != null && crawler.getDetector() != null) {
+				Path printpath = parser.getPath(dupFlag, defaultDups);
+				SimpleJsonWriter.asStringObject(crawler.getDetector().getDuplicates(), printpath);
+			}
+		} catch (IOException e) {
+			System.err.println("Given path at which to write -duplicates is invalid.");
+		}
+		
 		/** Check for optional -query flag. **/
 		try {
 			if (parser.hasFlag("-query")) {
@@ -143,9 +296,76 @@ public class Driver {
 			}
 		}
 		
+		/** Check for optional -stats flag. **/
+		if (parser.hasFlag(statsFlag)) {
+			if (crawler != null) {
+				printStats("fetch", crawler.getFetchStats());
+				printStats("parse", crawler.getParseStats());
+				System.out.println(crawler.getFrontier());
+				System.out.println(crawler.getScheduler());
+				if (crawler.getCache() != null) {
+					System.out.println(crawler.getCache());
+				}
+				if (crawler.getDetector() != null) {
+					System.out.println(crawler.getDetector());
+				}
+				if (crawler.getCheckpoint() != null) {
+					System.out.println(crawler.getCheckpoint());
+				}
+				if (crawler.getAsyncFetcher() != null) {
+					printStats("callback", crawler.getAsyncFetcher().getStats());
+					System.out.println(crawler.getAsyncFetcher());
+				}
+				else {
+					System.out.println(HttpsFetcher.POOL);
+				}
+			}
+			else if (indexBuilder instanceof ConcurrentInvertedIndexBuilder) {
+				ConcurrentInvertedIndexBuilder builder = (ConcurrentInvertedIndexBuilder) indexBuilder;
+				printStats("index", builder.getStats());
+				System.out.printf("[index schedule]%n%s: walk %d ms, makespan %d ms%n",
+					builder.isScheduled() ? "largest first" : "walk order",
+					builder.getWalkTime(TimeUnit.MILLISECONDS),
+					builder.getMakespan(TimeUnit.MILLISECONDS));
+				long walkOrder    = builder.getWalkOrderEstimate(TimeUnit.MILLISECONDS);
+				long largestFirst = builder.getLargestFirstEstimate(TimeUnit.MILLISECONDS);
+				System.out.printf("estimated makespan: walk order %d ms, largest first %d ms, %d ms saved by largest first%n",
+					walkOrder, largestFirst, walkOrder - largestFirst);
+			}
+			else if (indexBuilder instanceof PipelinedInvertedIndexBuilder) {
+				PipelinedInvertedIndexBuilder pipeline = (PipelinedInvertedIndexBuilder) indexBuilder;
+				printStats("read", pipeline.getReadStats());
+				printStats("stem", pipeline.getStemStats());
+				printStats("merge", pipeline.getMergeStats());
+			}
+			if (searchBuilder instanceof ConcurrentSearchBuilder) {
+				printStats("query", ((ConcurrentSearchBuilder) searchBuilder).getStats());
+			}
+			System.out.println(TextFileStemmer.CACHE);
+			// only the memory saved is reported, as no unpruned index is built to time queries against
+			if (index.getPrunedCount() > 0) {
+				long stored = index.getPositionCount();
+				long pruned = index.getPrunedPositions();
+				System.out.printf("[prune]%n%d stems pruned, %d of %d positions dropped (%.1f%%)%n",
+					index.getPrunedCount(), pruned, stored + pruned,
+					100.0 * pruned / Math.max(1, stored + pruned));
+			}
+		}
+		
 		/** Calculate time elapsed and output. **/
 		Duration elapsed = Duration.between(start, Instant.now());
 		double seconds   = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
 		System.out.printf("Elapsed: %f seconds%n", seconds);
 	}
+	
+	/**
+	 * Prints the metrics of a WorkQueue, if it ran.
+	 * @param name  The name of the stage the WorkQueue ran.
+	 * @param stats The metrics to print, or {@code null} if the stage did not run.
+	 */
+	private static void printStats(String name, WorkQueueStats stats) {
+		if (stats != null) {
+			System.out.printf("[%s queue]%n%s%n", name, stats);
+		}
+	}
 }
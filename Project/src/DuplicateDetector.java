@@ -0,0 +1,295 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Detects crawled pages whose cleaned text duplicates a page crawled before
+ * them, so that only the first copy is indexed. Each page is fingerprinted by a
+ * hash of its exact words and by a SimHash of its overlapping runs of words, so
+ * that pages which differ in only a few words, such as a date or a counter,
+ * are caught as well as exact copies. Two pages are near-duplicates when their
+ * SimHashes differ in at most {@link #MAX_DISTANCE} bits, which is found by
+ * looking up each block of bits in its own table, since any two such
+ * SimHashes must agree on at least one of the blocks.
+ * <p>
+ * Pages may be submitted in any order, but are decided in the order the
+ * frontier admitted them, so the copy kept is always the one nearest the seed
+ * and the same pages are kept however fetches interleave. Every number
+ * admitted must be submitted exactly once, even if the page could not be
+ * fetched, or later pages will wait forever. This class is thread-safe.
+ * @author Jackson Raffety
+ * @see Crawler
+ * @see CrawlFrontier
+ */
+public class DuplicateDetector {
+
+	/** The number of words in each run hashed into a SimHash. */
+	public static final int SHINGLE_SIZE = 3;
+
+	/** The most bits two SimHashes may differ in for near-duplicate pages. */
+	public static final int MAX_DISTANCE = 3;
+
+	/** The number of bits in each block of a SimHash looked up. */
+	private static final int BLOCK_BITS = 64 / (MAX_DISTANCE + 1);
+
+	/** The 64-bit FNV-1a offset basis. */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/** The 64-bit FNV-1a prime. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** The executor to run the indexing of each page kept on. */
+	private final Executor executor;
+
+	/** The URL of each page kept, keyed by the exact hash of its words. */
+	private final HashMap<Long, String> exact;
+
+	/** The pages kept, keyed by the position and value of each SimHash block. */
+	private final HashMap<Long, List<Page>> blocks;
+
+	/** The URL of each duplicate page, mapped to the URL of the page kept. */
+	private final TreeMap<String, String> duplicates;
+
+	/** The pages submitted still waiting for earlier pages. */
+	private final HashMap<Integer, Page> waiting;
+
+	/** The number of the next page to decide. */
+	private int next;
+
+	/** The number of pages kept. */
+	private int kept;
+
+	/** The number of duplicates which were not exact copies. */
+	private int near;
+
+	/**
+	 * Initializes a detector which has seen no pages.
+	 * @param executor The executor to run the indexing of each page kept on.
+	 */
+	public DuplicateDetector(Executor executor) {
+		this.executor   = executor;
+		this.exact      = new HashMap<>();
+		this.blocks     = new HashMap<>();
+		this.duplicates = new TreeMap<>();
+		this.waiting    = new HashMap<>();
+		this.next       = 0;
+		this.kept       = 0;
+		this.near       = 0;
+	}
+
+	/**
+	 * Submits a completed page. Once every earlier page is decided, decides this
+	 * and any later pages submitted in order, running the indexing of each page
+	 * which is not a duplicate on the executor.
+	 * @param number The number the frontier admitted the page with.
+	 * @param url    The URL of the page.
+	 * @param text   The cleaned text of the page, or null if not fetched.
+	 * @param index  What to do with the page if it is not a duplicate.
+	 */
+	public void submit(int number, String url, String text, Runnable index) {
+		Page page = new Page(url, text == null ? null : new Fingerprint(text), index);
+		ArrayList<Runnable> ready = new ArrayList<>();
+		synchronized (this) {
+			waiting.put(number, page);
+			while ((page = waiting.remove(next)) != null) {
+				next++;
+				if (decide(page)) {
+					ready.add(page.index);
+				}
+				page.index = null;
+			}
+		}
+		for (Runnable task : ready) {
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Returns the duplicate pages found so far.
+	 * @return Map<String, String> The URL of each duplicate, mapped to the URL
+	 *     of the page kept in its place.
+	 */
+	public synchronized Map<String, String> getDuplicates() {
+		return Collections.unmodifiableMap(new TreeMap<>(duplicates));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("duplicates: %d pages kept, %d exact and %d near duplicates skipped, %d pages waiting",
+			kept, duplicates.size() - near, near, waiting.size());
+	}
+
+	/**
+	 * Decides whether a page duplicates one kept before it, remembering it if
+	 * not.
+	 * @param page     The page to decide.
+	 * @return boolean True if the page should be indexed.
+	 */
+	private boolean decide(Page page) {
+		Fingerprint print = page.fingerprint;
+		if (print == null) {
+			return false;
+		}
+		if (print.words == 0) {
+			return true;
+		}
+
+		String original = exact.get(print.exact);
+		if (original == null) {
+			for (int block = 0; block <= MAX_DISTANCE && original == null; block++) {
+				for (Page candidate : blocks.getOrDefault(getKey(print.simHash, block), Collections.emptyList())) {
+					if (Long.bitCount(candidate.fingerprint.simHash ^ print.simHash) <= MAX_DISTANCE) {
+						original = candidate.url;
+						near++;
+						break;
+					}
+				}
+			}
+		}
+		if (original != null) {
+			duplicates.put(page.url, original);
+			return false;
+		}
+
+		exact.put(print.exact, page.url);
+		for (int block = 0; block <= MAX_DISTANCE; block++) {
+			blocks.computeIfAbsent(getKey(print.simHash, block), key -> new ArrayList<>()).add(page);
+		}
+		kept++;
+		return true;
+	}
+
+	/**
+	 * Returns the key of a block of a SimHash.
+	 * @param simHash The SimHash.
+	 * @param block   The position of the block.
+	 * @return long   The position and bits of the block.
+	 */
+	private static long getKey(long simHash, int block) {
+		long bits = (simHash >>> (block * BLOCK_BITS)) & ((1L << BLOCK_BITS) - 1);
+		return (long) block << BLOCK_BITS | bits;
+	}
+
+	/**
+	 * Hashes the characters of a word with 64-bit FNV-1a.
+	 * @param word  The word to hash.
+	 * @return long The hash of the word.
+	 */
+	private static long hash(CharSequence word) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < word.length(); i++) {
+			hash = (hash ^ word.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of a hash evenly, as the SimHash of a page depends on
+	 * every bit of the hash of each of its runs of words.
+	 * @param hash  The hash to mix.
+	 * @return long The mixed hash.
+	 */
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+
+	/**
+	 * The fingerprints of the cleaned text of a page.
+	 */
+	private static class Fingerprint {
+
+		/** The hash of the exact words of the page. */
+		private final long exact;
+
+		/** The SimHash of the runs of words of the page. */
+		private final long simHash;
+
+		/** The number of words of the page. */
+		private final int words;
+
+		/**
+		 * Fingerprints the words of a page, as split for the index.
+		 * @param text The cleaned text of the page.
+		 */
+		public Fingerprint(String text) {
+			TextTokenizer tokenizer = new TextTokenizer().reset(text);
+			long[] recent = new long[SHINGLE_SIZE];
+			int[] weights = new int[64];
+			long exactHash = FNV_OFFSET;
+			int count = 0;
+
+			while (tokenizer.next()) {
+				long word = hash(tokenizer.token());
+				exactHash = (exactHash ^ word) * FNV_PRIME;
+				recent[count % SHINGLE_SIZE] = word;
+				count++;
+				if (count >= SHINGLE_SIZE) {
+					addShingle(weights, recent, count);
+				}
+			}
+			if (count > 0 && count < SHINGLE_SIZE) {
+				addShingle(weights, recent, count);
+			}
+
+			long bits = 0;
+			for (int bit = 0; bit < 64; bit++) {
+				if (weights[bit] > 0) {
+					bits |= 1L << bit;
+				}
+			}
+			this.exact   = exactHash;
+			this.simHash = bits;
+			this.words   = count;
+		}
+
+		/**
+		 * Adds the latest run of words to the weights of each bit of a SimHash.
+		 * @param weights The weights of each bit.
+		 * @param recent  The hashes of the latest words, in a ring.
+		 * @param count   The number of words seen so far.
+		 */
+		private static void addShingle(int[] weights, long[] recent, int count) {
+			long shingle = FNV_OFFSET;
+			for (int i = Math.max(0, count - SHINGLE_SIZE); i < count; i++) {
+				shingle = (shingle ^ recent[i % SHINGLE_SIZE]) * FNV_PRIME;
+			}
+			shingle = mix(shingle);
+			for (int bit = 0; bit < 64; bit++) {
+				weights[bit] += (shingle >>> bit & 1) == 1 ? 1 : -1;
+			}
+		}
+	}
+
+	/**
+	 * A page submitted to be decided.
+	 */
+	private static class Page {
+
+		/** The URL of the page. */
+		private final String url;
+
+		/** The fingerprints of the page, or null if not fetched. */
+		private final Fingerprint fingerprint;
+
+		/** What to do with the page if kept, or null once decided. */
+		private Runnable index;
+
+		/**
+		 * Initializes a page submitted.
+		 * @param url         The URL of the page.
+		 * @param fingerprint The fingerprints of the page.
+		 * @param index       What to do with the page if kept.
+		 */
+		public Page(String url, Fingerprint fingerprint, Runnable index) {
+			this.url         = url;
+			this.fingerprint = fingerprint;
+			this.index       = index;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe scheduler of fetches which is polite to each host. Fetches
+ * wait in a queue of their own host, so that at most a fixed number run at
+ * once against any host and each starts no sooner than the crawl delay after
+ * the last. Waiting fetches never hold a thread, so the threads of the
+ * executor stay busy with the hosts which are ready while others wait.
+ * <p>
+ * The robots.txt of each host is fetched and parsed once, before any other
+ * fetch to that host starts, and kept for as long as the scheduler. Fetches
+ * it disallows are never started, and its crawl delay is honored if longer
+ * than the scheduler's own.
+ * @author Jackson Raffety
+ * @see RobotsTxt
+ * @see Crawler
+ */
+public class HostScheduler {
+
+	/** The default maximum number of fetches running at once against a host. */
+	public static final int DEFAULT_MAX_PER_HOST = 2;
+
+	/** The default delay between the starts of fetches to a host, in milliseconds. */
+	public static final long DEFAULT_DELAY = 0;
+
+	/** The longest crawl delay a robots.txt may request, in milliseconds. */
+	public static final long MAX_CRAWL_DELAY = 10_000;
+
+	/** The largest robots.txt to read, in bytes. Larger files are ignored. */
+	public static final long MAX_ROBOTS_SIZE = 500 << 10;
+
+	/** The number of redirects to follow when fetching a robots.txt. */
+	public static final int ROBOTS_REDIRECTS = 5;
+
+	/** The executor running every fetch. */
+	private final Executor executor;
+
+	/** The state of each host, keyed by scheme, host and port. */
+	private final HashMap<String, Host> hosts;
+
+	/** The maximum number of fetches running at once against a host. */
+	private final int maxPerHost;
+
+	/** The least delay between the starts of fetches to a host. */
+	private final long delay;
+
+	/** The number of fetches disallowed by robots.txt. */
+	private final LongAdder denied;
+
+	/** The number of times a host had fetches waiting out its crawl delay. */
+	private final LongAdder delayed;
+
+	/**
+	 * Initializes a scheduler.
+	 * @param executor   The executor to run fetches on.
+	 * @param maxPerHost The maximum number of fetches running at once against a host.
+	 * @param delay      The least delay between the starts of fetches to a host,
+	 *     in milliseconds.
+	 */
+	public HostScheduler(Executor executor, int maxPerHost, long delay) {
+		this.executor   = executor;
+		this.hosts      = new HashMap<>();
+		this.maxPerHost = maxPerHost;
+		this.delay      = delay;
+		this.denied     = new LongAdder();
+		this.delayed    = new LongAdder();
+	}
+
+	/**
+	 * Schedules a fetch of a URL. Once its host allows, the fetch is run on the
+	 * executor and given a callback which it must run when done with the host,
+	 * which may be after it returns. If the host's robots.txt disallows the URL,
+	 * the fetch is never run and the denial is run on the executor instead.
+	 * @param url    The URL to fetch.
+	 * @param fetch  The fetch, taking the callback to run when done.
+	 * @param denial What to do instead if the URL is disallowed.
+	 */
+	public void execute(URL url, Consumer<Runnable> fetch, Runnable denial) {
+		Host host;
+		synchronized (hosts) {
+			host = hosts.computeIfAbsent(getKey(url), key -> new Host(url));
+		}
+		synchronized (host) {
+			host.queue.add(new Pending(url, fetch, denial));
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Returns the number of fetches disallowed by robots.txt.
+	 * @return long The number of denied fetches.
+	 */
+	public long getDenied() {
+		return denied.sum();
+	}
+
+	@Override
+	public String toString() {
+		int count;
+		synchronized (hosts) {
+			count = hosts.size();
+		}
+		return String.format("hosts: %d, %d fetches denied by robots.txt, %d crawl delay waits",
+			count, denied.sum(), delayed.sum());
+	}
+
+	/**
+	 * Starts as many of a host's waiting fetches as it allows, loading its
+	 * robots.txt first if needed, and arranges to try again once the crawl delay
+	 * has passed if fetches are still waiting on it.
+	 * @param host The host whose fetches to start.
+	 */
+	private void dispatch(Host host) {
+		ArrayList<Runnable> ready = new ArrayList<>();
+		synchronized (host) {
+			if (host.robots == null) {
+				if (!host.loading) {
+					host.loading = true;
+					ready.add(() -> loadRobots(host));
+				}
+			}
+			else {
+				while (!host.queue.isEmpty() && host.running < maxPerHost) {
+					Pending next = host.queue.peekFirst();
+					if (!host.robots.isAllowed(next.url)) {
+						host.queue.pollFirst();
+						denied.increment();
+						ready.add(next.denial);
+						continue;
+					}
+
+					long now = System.currentTimeMillis();
+					if (host.nextStart > now) {
+						if (!host.waking) {
+							host.waking = true;
+							delayed.increment();
+							CompletableFuture.delayedExecutor(host.nextStart - now, TimeUnit.MILLISECONDS, executor)
+								.execute(() -> wake(host));
+						}
+						break;
+					}
+
+					host.queue.pollFirst();
+					host.running++;
+					host.nextStart = now + host.delay;
+					ready.add(() -> next.fetch.accept(() -> finished(host)));
+				}
+			}
+		}
+		for (Runnable task : ready) {
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Tries again to start a host's fetches once its crawl delay has passed.
+	 * @param host The host whose fetches to start.
+	 */
+	private void wake(Host host) {
+		synchronized (host) {
+			host.waking = false;
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Records that a fetch is done with its host, starting the next if any.
+	 * @param host The host of the fetch.
+	 */
+	private void finished(Host host) {
+		synchronized (host) {
+			host.running--;
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Fetches and parses the robots.txt of a host, then starts its fetches. A
+	 * robots.txt which is missing, too large or cannot be fetched allows
+	 * everything.
+	 * @param host The host whose robots.txt to load.
+	 */
+	private void loadRobots(Host host) {
+		RobotsTxt robots = RobotsTxt.ALLOW_ALL;
+		try {
+			URL url = new URL(host.origin, "/robots.txt");
+			for (int redirects = ROBOTS_REDIRECTS; redirects >= 0; redirects--) {
+				Map<String, List<String>> headers = HttpsFetcher.fetch(url,
+					fields -> HtmlFetcher.getStatusCode(fields) == 200, MAX_ROBOTS_SIZE);
+				if (headers.containsKey("Content")) {
+					robots = RobotsTxt.parse(headers.get("Content"));
+					break;
+				}
+				if (!HtmlFetcher.isRedirect(headers)) {
+					break;
+				}
+				url = new URL(url, headers.get("Location").get(0));
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.println("Unable to fetch robots.txt of " + host.origin.getHost());
+		}
+
+		synchronized (host) {
+			host.robots    = robots;
+			host.delay     = Math.max(delay, Math.min(robots.getCrawlDelay(), MAX_CRAWL_DELAY));
+			host.nextStart = System.currentTimeMillis() + host.delay;
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Returns the key of the host of a URL.
+	 * @param url     The URL whose host to identify.
+	 * @return String The scheme, host and port of the URL.
+	 */
+	private static String getKey(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * The fetches and robots.txt of a single host. Guarded by its own monitor.
+	 */
+	private static class Host {
+
+		/** A URL of the host, against which to resolve its robots.txt. */
+		private final URL origin;
+
+		/** The fetches waiting to start, in the order scheduled. */
+		private final ArrayDeque<Pending> queue;
+
+		/** The rules of the host's robots.txt, or null until loaded. */
+		private RobotsTxt robots;
+
+		/** Whether the host's robots.txt is being loaded. */
+		private boolean loading;
+
+		/** The number of fetches running against the host. */
+		private int running;
+
+		/** The delay between the starts of fetches to the host. */
+		private long delay;
+
+		/** The earliest time the next fetch may start, in milliseconds. */
+		private long nextStart;
+
+		/** Whether a retry is scheduled for when the crawl delay has passed. */
+		private boolean waking;
+
+		/**
+		 * Initializes a host with no fetches.
+		 * @param origin A URL of the host.
+		 */
+		public Host(URL origin) {
+			this.origin = origin;
+			this.queue  = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * A fetch waiting for its host.
+	 */
+	private static class Pending {
+
+		/** The URL to fetch. */
+		private final URL url;
+
+		/** The fetch, taking the callback to run when done. */
+		private final Consumer<Runnable> fetch;
+
+		/** What to do instead if the URL is disallowed. */
+		private final Runnable denial;
+
+		/**
+		 * Initializes a waiting fetch.
+		 * @param url    The URL to fetch.
+		 * @param fetch  The fetch, taking the callback to run when done.
+		 * @param denial What to do instead if the URL is disallowed.
+		 */
+		public Pending(URL url, Consumer<Runnable> fetch, Runnable denial) {
+			this.url    = url;
+			this.fetch  = fetch;
+			this.denial = denial;
+		}
+	}
+}
@@ -1,8 +1,7 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +13,11 @@ import java.util.Map;
  */
 public class HtmlFetcher {
 
+	/**
+	 * The largest HTML body to download, in bytes. Larger pages are skipped.
+	 */
+	public static final long MAX_BODY_SIZE = 10 << 20;
+
 	/**
 	 * Returns {@code true} if and only if there is a "Content-Type" header and the
 	 * first value of that header starts with the value "text/html" (case-insensitive).
@@ -51,21 +55,32 @@ public class HtmlFetcher {
 		return true;
 	}
 
+	/**
+	 * Returns {@code true} if the status code is that of a permanent redirect,
+	 * 301 Moved Permanently or 308 Permanent Redirect.
+	 * @param status the HTTP status code
+	 * @return {@code true} if the redirect may be remembered
+	 */
+	public static boolean isPermanent(int status) {
+		return status == 301 || status == 308;
+	}
+
 	/**
 	 * Fetches the resource at the URL using HTTP/1.1 and sockets. If the status
 	 * code is 200 and the content type is HTML, returns the HTML as a single
 	 * string. If the status code is a valid redirect, will follow that redirect if
-	 * the number of redirects is greater than 0. Otherwise, returns {@code null}.
+	 * the number of redirects is greater than 0, resolving a relative Location
+	 * against the url. Otherwise, returns {@code null}. The headers are checked
+	 * before any of the body is read, so the bodies of redirects, errors and
+	 * non-HTML resources are never downloaded, and neither is any page larger
+	 * than {@link #MAX_BODY_SIZE}.
 	 * @param url       the url to fetch
 	 * @param redirects the number of times to follow redirects
 	 * @return the html or {@code null} if unable to fetch the resource or the
 	 *         resource is not html
 	 * @throws IOException 
 	 *
-	 * @see HttpsFetcher#openConnection(URL)
-	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-	 * @see HttpsFetcher#getHeaderFields(BufferedReader)
-	 * @see HttpsFetcher#getContent(BufferedReader)
+	 * @see HttpsFetcher#fetch(URL, java.util.function.Predicate, long)
 	 *
 	 * @see String#join(CharSequence, CharSequence...)
 	 *
@@ -73,16 +88,92 @@ public class HtmlFetcher {
 	 * @see #isRedirect(Map)
 	 */
 	public static String fetch(URL url, int redirects) throws IOException {
-		Map<String, List<String>> headers = HttpsFetcher.fetch(url);
-		if (getStatusCode(headers) == 200 && isHtml(headers)) {
+		Map<String, List<String>> headers = HttpsFetcher.fetch(url,
+			fields -> getStatusCode(fields) == 200 && isHtml(fields), MAX_BODY_SIZE);
+		if (headers.containsKey("Content")) {
 			return String.join("\n", headers.get("Content"));
 		}
 		else if (redirects > 0 && isRedirect(headers)) {
-			return fetch(headers.get("Location").get(0), --redirects);
+			try {
+				return fetch(new URL(url, headers.get("Location").get(0)), --redirects);
+			}
+			catch (MalformedURLException e) {
+				return null;
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Fetches HTML as with {@link #fetch(URL, int)}, through a cache of earlier
+	 * fetches if given. A page already cached is asked for only if it has
+	 * changed since, and the cached page is returned if the server reports it
+	 * has not. A permanent redirect already cached is followed without asking
+	 * the server. Pages and permanent redirects fetched are added to the cache.
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cache     the cache of earlier fetches, or {@code null} for none
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *         resource is not html
+	 * @throws IOException
+	 *
+	 * @see HttpCache
+	 */
+	public static String fetch(URL url, int redirects, HttpCache cache) throws IOException {
+		if (cache == null) {
+			return fetch(url, redirects);
+		}
+		HttpCache.Entry cached = cache.get(url);
+		if (cached != null && cached.isRedirect()) {
+			return redirects > 0 ? fetch(cache.follow(cached, url), redirects - 1, cache) : null;
+		}
+
+		Map<String, List<String>> headers = HttpsFetcher.fetch(url,
+			cached == null ? Collections.emptyMap() : cached.getConditions(),
+			fields -> getStatusCode(fields) == 200 && isHtml(fields), MAX_BODY_SIZE);
+		int status = getStatusCode(headers);
+		if (status == 304 && cached != null) {
+			return cache.reuse(cached);
+		}
+		if (headers.containsKey("Content")) {
+			String html = String.join("\n", headers.get("Content"));
+			cache.store(url, HttpsFetcher.getHeader(headers, "ETag"),
+				HttpsFetcher.getHeader(headers, "Last-Modified"), html);
+			return html;
+		}
+		if (isRedirect(headers)) {
+			String location = headers.get("Location").get(0);
+			if (isPermanent(status)) {
+				cache.storeRedirect(url, location);
+			}
+			if (redirects > 0) {
+				return fetch(new URL(url, location), redirects - 1, cache);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts the {@link String} url into a {@link URL} object and then calls
+	 * {@link #fetch(URL, int, HttpCache)}.
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param cache     the cache of earlier fetches, or {@code null} for none
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *         resource is not html
+	 * @throws IOException
+	 *
+	 * @see #fetch(URL, int, HttpCache)
+	 */
+	public static String fetch(String url, int redirects, HttpCache cache) throws IOException {
+		try {
+			return fetch(new URL(url), redirects, cache);
+		}
+		catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Converts the {@link String} url into a {@link URL} object and then calls
 	 * {@link #fetch(URL, int)}.
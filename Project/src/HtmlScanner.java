@@ -0,0 +1,649 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A single-pass replacement for cleaning HTML with {@link HtmlCleaner} and
+ * listing its links with {@link LinkParser}. One scan over the HTML skips
+ * comments and the head, style, script, noscript and svg elements, strips tags
+ * and entities from the text that remains, and collects the href of each
+ * anchor tag, without compiling any patterns or building a String per pass.
+ * The results match those of the regular expressions exactly: comments are
+ * found first, block elements are matched case-sensitively from their opening
+ * tag to the first matching closing tag (so "&lt;head" also opens at
+ * "&lt;header"), and anchors are matched as by {@link LinkParser}.
+ * <p>
+ * The regular expressions strip each kind of block element in turn, so when
+ * one block element contains the opening tag of an element stripped before it,
+ * or when stripping one element leaves behind a closing tag of another, the
+ * order of the passes matters. Such pages are rare, and are recognized and
+ * handed to the original passes instead. This class is not thread-safe.
+ * @author Jackson Raffety
+ * @see HtmlCleaner
+ * @see LinkParser
+ */
+public class HtmlScanner {
+
+	/** The opening tag of each block element to skip, in the order HtmlCleaner strips them. */
+	private static final String[] OPENS = {"<head", "<style", "<script", "<noscript", "<svg"};
+
+	/** The start of the closing tag of each block element. */
+	private static final String[] CLOSES = {"</head", "</style", "</script", "</noscript", "</svg"};
+
+	/** The number of pages handed to the original passes. */
+	private static final LongAdder FALLBACKS = new LongAdder();
+
+	/** The HTML being scanned. */
+	private CharSequence html;
+
+	/** The length of the HTML being scanned. */
+	private int length;
+
+	/** The offsets at which each comment found so far starts. */
+	private int[] commentStarts;
+
+	/** The offsets just after each comment found so far ends. */
+	private int[] commentEnds;
+
+	/** The number of comments found so far. */
+	private int comments;
+
+	/** The offset from which to look for the next comment, or -1 if none. */
+	private int commentSearch;
+
+	/** The offset from which each block element's closing tag was last sought. */
+	private final int[] closeFrom;
+
+	/** The offset of each block element's closing tag last found, or -1. */
+	private final int[] closeStart;
+
+	/** The offset just after each block element's closing tag last found. */
+	private final int[] closeEnd;
+
+	/** The offset from which each block element's opening tag was last sought. */
+	private final int[] openFrom;
+
+	/** The offset of each block element's opening tag last found, or -1. */
+	private final int[] openStart;
+
+	/** The HTML with comments and block elements replaced by spaces. */
+	private final StringBuilder blocks;
+
+	/** The visible text, with tags and entities removed. */
+	private final StringBuilder text;
+
+	/** The hrefs of every anchor tag, in the order found. */
+	private final ArrayList<String> hrefs;
+
+	/** The contents of the tag currently open. */
+	private final StringBuilder tag;
+
+	/** Whether a tag is currently open. */
+	private boolean inTag;
+
+	/** The contents of the entity currently open. */
+	private final StringBuilder entity;
+
+	/** 0 outside an entity, 1 just after an ampersand, or 2 within an entity. */
+	private int entityState;
+
+	/** The offset within blocks from which to look for the next anchor tag. */
+	private int linkSearch;
+
+	/**
+	 * Initializes a scanner.
+	 */
+	public HtmlScanner() {
+		this.commentStarts = new int[16];
+		this.commentEnds   = new int[16];
+		this.closeFrom     = new int[OPENS.length];
+		this.closeStart    = new int[OPENS.length];
+		this.closeEnd      = new int[OPENS.length];
+		this.openFrom      = new int[OPENS.length];
+		this.openStart     = new int[OPENS.length];
+		this.blocks        = new StringBuilder();
+		this.text          = new StringBuilder();
+		this.hrefs         = new ArrayList<>();
+		this.tag           = new StringBuilder();
+		this.entity        = new StringBuilder();
+	}
+
+	/**
+	 * Scans a page of HTML, replacing the results of any earlier scan.
+	 * @param html           The HTML to scan.
+	 * @return HtmlScanner   This scanner, for convenience.
+	 */
+	public HtmlScanner scan(CharSequence html) {
+		reset(html);
+		if (!scanBlocks()) {
+			FALLBACKS.increment();
+			scanPasses();
+		}
+		this.html = null;
+		return this;
+	}
+
+	/**
+	 * Returns the visible text of the last page scanned, as would be returned by
+	 * {@link HtmlCleaner#stripHtml(String)}.
+	 * @return String The visible text.
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Returns the href of each anchor tag of the last page scanned, in the order
+	 * found and not yet resolved, as would be found by
+	 * {@link LinkParser#listHrefs(String)} after stripping block elements.
+	 * @return ArrayList<String> The hrefs of the page.
+	 */
+	public ArrayList<String> getHrefs() {
+		return hrefs;
+	}
+
+	/**
+	 * Returns the number of pages which had to be handed to the original passes.
+	 * @return long The number of pages not scanned in a single pass.
+	 */
+	public static long getFallbacks() {
+		return FALLBACKS.sum();
+	}
+
+	/**
+	 * Clears the results of the last scan and prepares to scan new HTML.
+	 * @param html The HTML to scan.
+	 */
+	private void reset(CharSequence html) {
+		this.html     = html;
+		this.length   = html.length();
+		this.comments = 0;
+		this.commentSearch = 0;
+		Arrays.fill(closeFrom, Integer.MAX_VALUE);
+		Arrays.fill(openFrom, Integer.MAX_VALUE);
+		blocks.setLength(0);
+		text.setLength(0);
+		hrefs.clear();
+		tag.setLength(0);
+		entity.setLength(0);
+		inTag       = false;
+		entityState = 0;
+		linkSearch  = 0;
+	}
+
+	/**
+	 * Scans the HTML in a single pass.
+	 * @return boolean False if the order of the original passes would matter,
+	 *     in which case the results are incomplete.
+	 */
+	private boolean scanBlocks() {
+		int i = 0;
+		while (i < length) {
+			char c = html.charAt(i);
+			if (c == '<') {
+				int comment = commentEndingAfter(i);
+				if (comment >= 0) {
+					emit(' ');
+					i = comment;
+					continue;
+				}
+
+				int block = blockAt(i);
+				if (block >= 0) {
+					int close = findClose(block, i + OPENS[block].length());
+					if (close >= 0) {
+						if (containsEarlierBlock(block, i + 1, close) || followsCloseTag(i)) {
+							return false;
+						}
+						emit(' ');
+						i = close;
+						continue;
+					}
+				}
+			}
+			emit(c);
+			i++;
+		}
+
+		if (inTag) {
+			inTag = false;
+			feedEntity('<');
+			for (int j = 0; j < tag.length(); j++) {
+				feedEntity(tag.charAt(j));
+			}
+		}
+		if (entityState != 0) {
+			text.append('&').append(entity);
+		}
+		findLinks(true);
+		return true;
+	}
+
+	/**
+	 * Cleans the HTML and lists its links with the original passes.
+	 */
+	private void scanPasses() {
+		String stripped = HtmlCleaner.stripBlockElements(html.toString());
+		hrefs.clear();
+		hrefs.addAll(LinkParser.listHrefs(stripped));
+		text.setLength(0);
+		text.append(HtmlCleaner.stripEntities(HtmlCleaner.stripTags(stripped)));
+	}
+
+	/**
+	 * Adds a character of the HTML with block elements stripped, and passes it
+	 * on to have tags stripped.
+	 * @param c The character to add.
+	 */
+	private void emit(char c) {
+		blocks.append(c);
+		if (c == '>') {
+			findLinks(false);
+		}
+
+		if (inTag) {
+			if (c == '>') {
+				inTag = false;
+				tag.setLength(0);
+			}
+			else {
+				tag.append(c);
+			}
+		}
+		else if (c == '<') {
+			inTag = true;
+		}
+		else {
+			feedEntity(c);
+		}
+	}
+
+	/**
+	 * Adds a character of the HTML with tags stripped, dropping any entities.
+	 * An entity is an ampersand followed by anything other than whitespace, up
+	 * to and including the next semicolon.
+	 * @param c The character to add.
+	 */
+	private void feedEntity(char c) {
+		switch (entityState) {
+			case 0:
+				if (c == '&') {
+					entityState = 1;
+				}
+				else {
+					text.append(c);
+				}
+				break;
+			case 1:
+				if (isSpace(c)) {
+					text.append('&').append(c);
+					entityState = 0;
+				}
+				else {
+					entity.setLength(0);
+					entity.append(c);
+					entityState = 2;
+				}
+				break;
+			default:
+				if (c == ';') {
+					entity.setLength(0);
+					entityState = 0;
+				}
+				else {
+					entity.append(c);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Collects the hrefs of any anchor tags complete in the HTML with block
+	 * elements stripped, matching {@code <a[^>]+href\s*=\s*"(.+?)"} without
+	 * regard to case.
+	 * @param eof Whether the whole page has been added, so no anchor need wait
+	 *     for more of it.
+	 */
+	private void findLinks(boolean eof) {
+		while (true) {
+			int s = blocks.indexOf("<", linkSearch);
+			while (s >= 0 && s + 1 < blocks.length() && !isLetter(blocks.charAt(s + 1), 'a')) {
+				s = blocks.indexOf("<", s + 1);
+			}
+			if (s < 0 || s + 1 >= blocks.length()) {
+				linkSearch = s < 0 ? blocks.length() : s;
+				return;
+			}
+
+			int end = blocks.indexOf(">", s + 2);
+			if (end < 0) {
+				if (!eof) {
+					linkSearch = s;
+					return;
+				}
+				end = blocks.length();
+			}
+
+			boolean matched = false;
+			for (int t = end - 1; t >= s + 3 && !matched; t--) {
+				int quote = hrefQuote(t);
+				if (quote < 0) {
+					continue;
+				}
+				int close = blocks.indexOf("\"", quote + 2);
+				if (close < 0) {
+					if (!eof) {
+						linkSearch = s;
+						return;
+					}
+					continue;
+				}
+				hrefs.add(blocks.substring(quote + 1, close));
+				linkSearch = close + 1;
+				matched = true;
+			}
+			if (!matched) {
+				linkSearch = s + 1;
+			}
+		}
+	}
+
+	/**
+	 * Matches {@code href\s*=\s*"} without regard to case at an offset of the
+	 * HTML with block elements stripped.
+	 * @param start The offset at which to match.
+	 * @return int  The offset of the opening quote, or -1 if not matched.
+	 */
+	private int hrefQuote(int start) {
+		String href = "href";
+		if (start + href.length() > blocks.length()) {
+			return -1;
+		}
+		for (int i = 0; i < href.length(); i++) {
+			if (!isLetter(blocks.charAt(start + i), href.charAt(i))) {
+				return -1;
+			}
+		}
+		int i = start + href.length();
+		while (i < blocks.length() && isSpace(blocks.charAt(i))) {
+			i++;
+		}
+		if (i >= blocks.length() || blocks.charAt(i) != '=') {
+			return -1;
+		}
+		i++;
+		while (i < blocks.length() && isSpace(blocks.charAt(i))) {
+			i++;
+		}
+		return i < blocks.length() && blocks.charAt(i) == '"' ? i : -1;
+	}
+
+	/**
+	 * Returns the block element whose opening tag starts at an offset.
+	 * @param start The offset of a '&lt;' within the HTML.
+	 * @return int  The index of the block element, or -1 if none.
+	 */
+	private int blockAt(int start) {
+		for (int block = 0; block < OPENS.length; block++) {
+			if (startsWith(start, OPENS[block])) {
+				return block;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first closing tag of a block element at or after an offset,
+	 * outside of any comment. Searches are remembered, since a later search
+	 * from before the tag last found would find the same one.
+	 * @param block The index of the block element.
+	 * @param from  The offset from which to search.
+	 * @return int  The offset just after the closing tag, or -1 if none.
+	 */
+	private int findClose(int block, int from) {
+		if (closeFrom[block] <= from && (closeStart[block] < 0 || closeStart[block] >= from)) {
+			return closeStart[block] < 0 ? -1 : closeEnd[block];
+		}
+
+		String close = CLOSES[block];
+		int start = indexOf(close, from);
+		while (start >= 0) {
+			int comment = commentContaining(start);
+			if (comment >= 0) {
+				start = indexOf(close, comment);
+				continue;
+			}
+			int i = skipSpaces(start + close.length());
+			if (i < length && html.charAt(i) == '>') {
+				remember(block, from, start, i + 1);
+				return i + 1;
+			}
+			start = indexOf(close, start + 1);
+		}
+		remember(block, from, -1, -1);
+		return -1;
+	}
+
+	/**
+	 * Remembers the result of a search for a closing tag.
+	 * @param block The index of the block element.
+	 * @param from  The offset from which the search started.
+	 * @param start The offset of the closing tag found, or -1 if none.
+	 * @param end   The offset just after the closing tag found.
+	 */
+	private void remember(int block, int from, int start, int end) {
+		closeFrom[block]  = from;
+		closeStart[block] = start;
+		closeEnd[block]   = end;
+	}
+
+	/**
+	 * Determines whether an element contains the opening tag of an element
+	 * which HtmlCleaner strips before it, outside of any comment.
+	 * @param block    The index of the containing element.
+	 * @param from     The offset just after the start of the element.
+	 * @param to       The offset just after the end of the element.
+	 * @return boolean True if stripping the earlier element first could change
+	 *     where this element ends.
+	 */
+	private boolean containsEarlierBlock(int block, int from, int to) {
+		for (int earlier = 0; earlier < block; earlier++) {
+			int start = findOpen(earlier, from);
+			if (start >= 0 && start < to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the first opening tag of a block element at or after an offset,
+	 * outside of any comment. Searches are remembered in the same way as
+	 * those for closing tags.
+	 * @param block The index of the block element.
+	 * @param from  The offset from which to search.
+	 * @return int  The offset of the opening tag, or -1 if none.
+	 */
+	private int findOpen(int block, int from) {
+		if (openFrom[block] <= from && (openStart[block] < 0 || openStart[block] >= from)) {
+			return openStart[block];
+		}
+
+		int start = indexOf(OPENS[block], from);
+		while (start >= 0) {
+			int comment = commentContaining(start);
+			if (comment < 0) {
+				break;
+			}
+			start = indexOf(OPENS[block], comment);
+		}
+		openFrom[block]  = from;
+		openStart[block] = start;
+		return start;
+	}
+
+	/**
+	 * Determines whether an element directly follows the start of a closing tag
+	 * of a block element, ignoring whitespace and comments. Replacing the element
+	 * with a space could then complete that closing tag for a later pass.
+	 * @param start    The offset at which the element starts.
+	 * @return boolean True if the element follows the start of a closing tag.
+	 */
+	private boolean followsCloseTag(int start) {
+		int i = start;
+		while (i > 0) {
+			int comment = commentEndingAt(i);
+			if (comment >= 0) {
+				i = comment;
+			}
+			else if (isSpace(html.charAt(i - 1))) {
+				i--;
+			}
+			else {
+				break;
+			}
+		}
+		for (String close : CLOSES) {
+			if (i >= close.length() && startsWith(i - close.length(), close)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the end of the comment starting at an offset, if any.
+	 * @param start The offset to check.
+	 * @return int  The offset just after the comment, or -1 if none starts there.
+	 */
+	private int commentEndingAfter(int start) {
+		findComments(start);
+		int found = Arrays.binarySearch(commentStarts, 0, comments, start);
+		return found >= 0 ? commentEnds[found] : -1;
+	}
+
+	/**
+	 * Returns the start of the comment ending just before an offset, if any.
+	 * @param end  The offset to check.
+	 * @return int The offset at which the comment starts, or -1 if none ends there.
+	 */
+	private int commentEndingAt(int end) {
+		int found = Arrays.binarySearch(commentEnds, 0, comments, end);
+		return found >= 0 ? commentStarts[found] : -1;
+	}
+
+	/**
+	 * Returns the end of the comment containing an offset, if any.
+	 * @param offset The offset to check.
+	 * @return int   The offset just after the comment, or -1 if not in one.
+	 */
+	private int commentContaining(int offset) {
+		findComments(offset);
+		int found = Arrays.binarySearch(commentStarts, 0, comments, offset);
+		if (found < 0) {
+			found = -found - 2;
+		}
+		return found >= 0 && offset < commentEnds[found] ? commentEnds[found] : -1;
+	}
+
+	/**
+	 * Finds every comment starting at or before an offset, as matched from left
+	 * to right by {@code <!--(.*?)-->}.
+	 * @param offset The offset up to which to find comments.
+	 */
+	private void findComments(int offset) {
+		while (commentSearch >= 0 && commentSearch <= offset) {
+			int start = indexOf("<!--", commentSearch);
+			int end = start < 0 ? -1 : indexOf("-->", start + 4);
+			if (end < 0) {
+				commentSearch = -1;
+				return;
+			}
+			if (comments == commentStarts.length) {
+				commentStarts = Arrays.copyOf(commentStarts, comments * 2);
+				commentEnds   = Arrays.copyOf(commentEnds, comments * 2);
+			}
+			commentStarts[comments] = start;
+			commentEnds[comments]   = end + 3;
+			comments++;
+			commentSearch = end + 3;
+		}
+	}
+
+	/**
+	 * Skips any whitespace and comments from an offset.
+	 * @param from The offset from which to skip.
+	 * @return int The offset of the next other character.
+	 */
+	private int skipSpaces(int from) {
+		int i = from;
+		while (i < length) {
+			int comment = html.charAt(i) == '<' ? commentEndingAfter(i) : -1;
+			if (comment >= 0) {
+				i = comment;
+			}
+			else if (isSpace(html.charAt(i))) {
+				i++;
+			}
+			else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Determines whether the HTML contains a string at an offset.
+	 * @param offset   The offset to check.
+	 * @param prefix   The string to look for.
+	 * @return boolean True if the string is found at the offset.
+	 */
+	private boolean startsWith(int offset, String prefix) {
+		if (offset + prefix.length() > length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (html.charAt(offset + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds a string within the HTML.
+	 * @param target The string to find.
+	 * @param from   The offset from which to search.
+	 * @return int   The offset of the string, or -1 if not found.
+	 */
+	private int indexOf(String target, int from) {
+		if (html instanceof String) {
+			return ((String) html).indexOf(target, from);
+		}
+		for (int i = Math.max(0, from); i <= length - target.length(); i++) {
+			if (html.charAt(i) == target.charAt(0) && startsWith(i, target)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines whether a character is whitespace, as matched by {@code \s}.
+	 * @param c        The character to check.
+	 * @return boolean True if the character is whitespace.
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Determines whether a character is a lowercase ASCII letter in either case.
+	 * @param c        The character to check.
+	 * @param letter   The lowercase letter to compare against.
+	 * @return boolean True if the character is the letter in either case.
+	 */
+	private static boolean isLetter(char c, char letter) {
+		return c == letter || c == Character.toUpperCase(letter);
+	}
+}
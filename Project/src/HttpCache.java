@@ -0,0 +1,297 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of fetched pages kept in a local directory, so that a crawl repeated
+ * later only downloads the pages which have changed. Each page is kept with the
+ * ETag and Last-Modified validators it was served with, which are sent back as
+ * If-None-Match and If-Modified-Since the next time it is fetched; a 304 Not
+ * Modified response then reuses the cached page without downloading it again.
+ * Pages served without either validator cannot be revalidated and are not
+ * kept. Permanent redirects (301 and 308) are kept as well and followed without
+ * asking the server again.
+ * <p>
+ * Entries are keyed by the URL as cleaned by {@link LinkParser#clean(URL)}, and
+ * each is kept in its own file, named by a hash of the URL and replaced whole,
+ * so the cache may be shared by any number of threads and survives the process
+ * dying. This class is thread-safe.
+ * @author Jackson Raffety
+ * @see HtmlFetcher
+ * @see AsyncHtmlFetcher
+ */
+public class HttpCache {
+
+	/** Identifies an entry and the version of its format. */
+	private static final int MAGIC = 0x48434531;
+
+	/** The directory of the cache. */
+	private final Path directory;
+
+	/** The number of fetches of URLs with no entry. */
+	private final LongAdder misses;
+
+	/** The number of pages reused after a 304 response. */
+	private final LongAdder unchanged;
+
+	/** The number of permanent redirects followed without a request. */
+	private final LongAdder redirects;
+
+	/** The number of entries written. */
+	private final LongAdder stored;
+
+	/**
+	 * Initializes a cache within a directory, creating it if needed.
+	 * @param directory The directory of the cache.
+	 * @throws IOException if unable to create the directory
+	 */
+	public HttpCache(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.misses    = new LongAdder();
+		this.unchanged = new LongAdder();
+		this.redirects = new LongAdder();
+		this.stored    = new LongAdder();
+	}
+
+	/**
+	 * Returns the entry for a URL, if any. An entry which cannot be read is
+	 * treated as absent.
+	 * @param url    The URL fetched.
+	 * @return Entry The entry for the URL, or null if none.
+	 */
+	public Entry get(URL url) {
+		String key = LinkParser.clean(url).toString();
+		try (DataInputStream input = new DataInputStream(
+			new BufferedInputStream(Files.newInputStream(getPath(key)))))
+		{
+			if (input.readInt() == MAGIC && key.equals(readString(input))) {
+				boolean redirect    = input.readBoolean();
+				String etag         = readString(input);
+				String lastModified = readString(input);
+				String value        = readString(input);
+				return new Entry(redirect, etag, lastModified, value);
+			}
+		}
+		catch (NoSuchFileException e) {
+			// not yet cached
+		}
+		catch (IOException e) {
+			System.err.println("Unable to read the cache of " + key);
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Returns the page of an entry after the server reported it unchanged.
+	 * @param entry   The entry of the page.
+	 * @return String The cached HTML of the page.
+	 */
+	public String reuse(Entry entry) {
+		unchanged.increment();
+		return entry.value;
+	}
+
+	/**
+	 * Returns the target of a permanent redirect kept in an entry.
+	 * @param entry The entry of the redirect.
+	 * @param url   The URL redirected.
+	 * @return URL  The URL redirected to.
+	 * @throws MalformedURLException if the target is not a valid URL
+	 */
+	public URL follow(Entry entry, URL url) throws MalformedURLException {
+		redirects.increment();
+		return new URL(url, entry.value);
+	}
+
+	/**
+	 * Keeps the page fetched from a URL, if served with a validator.
+	 * @param url          The URL fetched.
+	 * @param etag         The ETag of the page, or null if none.
+	 * @param lastModified The Last-Modified date of the page, or null if none.
+	 * @param html         The HTML of the page.
+	 */
+	public void store(URL url, String etag, String lastModified, String html) {
+		if (etag != null || lastModified != null) {
+			write(url, new Entry(false, etag, lastModified, html));
+		}
+	}
+
+	/**
+	 * Keeps a permanent redirect from a URL.
+	 * @param url      The URL fetched.
+	 * @param location The Location the URL is redirected to.
+	 */
+	public void storeRedirect(URL url, String location) {
+		write(url, new Entry(true, null, null, location));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cache: %d unchanged, %d redirects reused, %d stored, %d misses in %s",
+			unchanged.sum(), redirects.sum(), stored.sum(), misses.sum(), directory);
+	}
+
+	/**
+	 * Writes an entry to a new file, then moves it in place of any older entry.
+	 * @param url   The URL fetched.
+	 * @param entry The entry for the URL.
+	 */
+	private void write(URL url, Entry entry) {
+		String key = LinkParser.clean(url).toString();
+		Path temporary = null;
+		try {
+			temporary = Files.createTempFile(directory, "entry", ".tmp");
+			try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporary))))
+			{
+				output.writeInt(MAGIC);
+				writeString(output, key);
+				output.writeBoolean(entry.redirect);
+				writeString(output, entry.etag);
+				writeString(output, entry.lastModified);
+				writeString(output, entry.value);
+			}
+			Files.move(temporary, getPath(key),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			stored.increment();
+		}
+		catch (IOException e) {
+			System.err.println("Unable to cache " + key);
+			try {
+				if (temporary != null) {
+					Files.deleteIfExists(temporary);
+				}
+			}
+			catch (IOException ignored) {
+				// left for the next crawl to overwrite
+			}
+		}
+	}
+
+	/**
+	 * Returns the path of the file of an entry.
+	 * @param key   The cleaned URL of the entry.
+	 * @return Path The file named by the SHA-256 hash of the URL.
+	 */
+	private Path getPath(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+				name.append(String.format("%02x", b));
+			}
+			return directory.resolve(name.append(".entry").toString());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * Writes a String which may be null, of any length.
+	 * @param output The output to write.
+	 * @param string The String to write.
+	 * @throws IOException if unable to write
+	 */
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a String written by {@link #writeString(DataOutputStream, String)}.
+	 * @param input   The input to read.
+	 * @return String The String read, which may be null.
+	 * @throws IOException if unable to read
+	 */
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A cached page or permanent redirect.
+	 */
+	public static class Entry {
+
+		/** Whether the entry is a permanent redirect rather than a page. */
+		private final boolean redirect;
+
+		/** The ETag of the page, or null if none. */
+		private final String etag;
+
+		/** The Last-Modified date of the page, or null if none. */
+		private final String lastModified;
+
+		/** The HTML of the page, or the Location of the redirect. */
+		private final String value;
+
+		/**
+		 * Initializes an entry.
+		 * @param redirect     Whether the entry is a permanent redirect.
+		 * @param etag         The ETag of the page, or null if none.
+		 * @param lastModified The Last-Modified date of the page, or null if none.
+		 * @param value        The HTML of the page, or the Location of the redirect.
+		 */
+		private Entry(boolean redirect, String etag, String lastModified, String value) {
+			this.redirect     = redirect;
+			this.etag         = etag;
+			this.lastModified = lastModified;
+			this.value        = value;
+		}
+
+		/**
+		 * Determines whether the entry is a permanent redirect.
+		 * @return boolean True if the entry is a redirect rather than a page.
+		 */
+		public boolean isRedirect() {
+			return redirect;
+		}
+
+		/**
+		 * Returns the headers which ask the server to send the page only if it
+		 * has changed since it was cached.
+		 * @return Map<String, String> The If-None-Match and If-Modified-Since
+		 *     headers, as the page's validators allow.
+		 */
+		public Map<String, String> getConditions() {
+			if (redirect) {
+				return Collections.emptyMap();
+			}
+			LinkedHashMap<String, String> conditions = new LinkedHashMap<>();
+			if (etag != null) {
+				conditions.put("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				conditions.put("If-Modified-Since", lastModified);
+			}
+			return conditions;
+		}
+	}
+}
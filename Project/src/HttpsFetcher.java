@@ -1,6 +1,11 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.Socket;
@@ -9,10 +14,16 @@ import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
@@ -20,11 +31,34 @@ import javax.net.ssl.SSLSocketFactory;
 /**
  * An alternative to using {@link Socket} connections instead of a
  * {@link URLConnection} to fetch the headers and content from a URL on the web.
+ * Connections are kept alive and shared through a {@link ConnectionPool}, so
+ * each response is framed by its Content-Length or chunked encoding rather
+ * than by the server closing the connection. Bodies are requested compressed
+ * with gzip or deflate, and are unframed, decompressed and split into lines as
+ * they stream from the connection, so neither the compressed nor the decoded
+ * body is ever held whole as bytes.
  * @author Unversity of San Francisco
  * @author Jackson Raffety
  */
 public class HttpsFetcher {
 
+	/**
+	 * The pool of keep-alive connections shared by every fetch.
+	 */
+	public static final ConnectionPool POOL = new ConnectionPool();
+
+	/**
+	 * The content codings which can be decoded, sent as Accept-Encoding with
+	 * every request.
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/**
+	 * The largest unwanted body which is skipped to keep its connection open,
+	 * rather than closing the connection without reading it.
+	 */
+	public static final long DRAIN_LIMIT = 1 << 13;
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is placed
 	 * as a list of all the lines fetched under the "Content" key.
@@ -33,18 +67,148 @@ public class HttpsFetcher {
 	 * @throws IOException if unable to fetch headers and content
 	 */
 	public static Map<String, List<String>> fetch(URL url) throws IOException {
-		try (
-				Socket socket = openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);
-		) {
-			printGetRequest(request, url);
-			Map<String, List<String>> headers = getHeaderFields(response);
-			List<String> content = getContent(response);
-			headers.put("Content", content);
+		return fetch(url, headers -> true, Long.MAX_VALUE);
+	}
 
-			return headers;
+	/**
+	 * Fetches the headers for the specified URL, and then its content only if
+	 * the headers are wanted and the body is no larger than maxBody bytes. The
+	 * content is placed as a list of all the lines fetched under the "Content"
+	 * key, which is absent if the body was not read. An unread body is skipped
+	 * if it is small enough to keep the connection for reuse, and otherwise the
+	 * connection is closed without reading it. A pooled connection which the
+	 * server closed while idle is retried on another. The body is requested
+	 * compressed and decoded as it is split into lines, and a body whose
+	 * decoded text is larger than maxBody characters is not read either.
+	 * @param url     the url to fetch
+	 * @param wanted  whether to read the body of a response with the given headers
+	 * @param maxBody the largest body to read
+	 * @return a map with the headers, and the content if read
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetch(URL url,
+		Predicate<Map<String, List<String>>> wanted, long maxBody) throws IOException
+	{
+		return fetch(url, Collections.emptyMap(), wanted, maxBody);
+	}
+
+	/**
+	 * Fetches the headers and then the content for the specified URL as with
+	 * {@link #fetch(URL, Predicate, long)}, sending the given fields with the
+	 * request, such as the conditions of a conditional GET.
+	 * @param url     the url to fetch
+	 * @param fields  the header fields to add to the request
+	 * @param wanted  whether to read the body of a response with the given headers
+	 * @param maxBody the largest body to read
+	 * @return a map with the headers, and the content if read
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetch(URL url, Map<String, String> fields,
+		Predicate<Map<String, List<String>>> wanted, long maxBody) throws IOException
+	{
+		LinkedHashMap<String, String> request = new LinkedHashMap<>();
+		request.put("Accept-Encoding", ACCEPT_ENCODING);
+		request.putAll(fields);
+
+		ConnectionPool.Connection connection;
+		Map<String, List<String>> headers;
+		while (true) {
+			connection = POOL.acquire(url);
+			try {
+				printGetRequest(connection.getWriter(), url, true, request);
+				do {
+					headers = getHeaderFields(connection.getInput());
+				} while (isInformational(headers));
+				break;
+			}
+			catch (IOException e) {
+				POOL.discard(connection);
+				if (!connection.isReused()) {
+					throw e;
+				}
+			}
+			catch (RuntimeException e) {
+				POOL.discard(connection);
+				throw e;
+			}
+		}
+
+		try {
+			readContent(connection, headers, wanted, maxBody);
+		}
+		catch (IOException | RuntimeException e) {
+			POOL.discard(connection);
+			throw e;
+		}
+		return headers;
+	}
+
+	/**
+	 * Reads the content of a response if wanted and small enough, then returns
+	 * the connection to the pool if it can be reused or discards it otherwise.
+	 * The caller must discard the connection if this throws.
+	 * @param connection the connection carrying the response, after the headers
+	 * @param headers    the headers of the response, to which to add the content
+	 * @param wanted     whether to read the body of a response with the headers
+	 * @param maxBody    the largest body to read
+	 * @throws IOException if unable to read the content
+	 */
+	private static void readContent(ConnectionPool.Connection connection,
+		Map<String, List<String>> headers, Predicate<Map<String, List<String>>> wanted,
+		long maxBody) throws IOException
+	{
+		InputStream input = connection.getInput();
+		int status = HtmlFetcher.getStatusCode(headers);
+		if (status == 204 || status == 304) {
+			if (isKeepAlive(headers)) {
+				POOL.release(connection);
+			}
+			else {
+				POOL.discard(connection);
+			}
+			return;
+		}
+
+		long length = getContentLength(headers);
+		if (!wanted.test(headers) || length > maxBody) {
+			String encoding = getHeader(headers, "Transfer-Encoding");
+			if (encoding == null && length >= 0 && length <= DRAIN_LIMIT && isKeepAlive(headers)) {
+				copy(input, OutputStream.nullOutputStream(), length);
+				POOL.release(connection);
+			}
+			else {
+				POOL.discard(connection);
+			}
+			return;
+		}
+
+		BodyInputStream body = new BodyInputStream(input, headers, maxBody);
+		List<String> content;
+		try {
+			content = decodeContent(body, getHeader(headers, "Content-Encoding"), maxBody);
+		}
+		catch (IOException e) {
+			if (!body.isTruncated()) {
+				throw e;
+			}
+			content = null;
+		}
+		if (content != null) {
+			// a compressed stream may end before the framing of the body does
+			body.transferTo(OutputStream.nullOutputStream());
+		}
+		if (body.isTruncated()) {
+			POOL.discard(connection);
+			return;
+		}
+		if (content != null) {
+			headers.put("Content", content);
+		}
+		if (body.isFramed() && isKeepAlive(headers)) {
+			POOL.release(connection);
+		}
+		else {
+			POOL.discard(connection);
 		}
 	}
 
@@ -89,13 +253,49 @@ public class HttpsFetcher {
 	 * @throws IOException
 	 */
 	public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+		printGetRequest(writer, url, false);
+	}
+
+	/**
+	 * Writes a simple HTTP GET request to the provided socket writer, asking the
+	 * server to either keep the connection open or close it after responding.
+	 * @param writer    a writer created from a socket connection
+	 * @param url       the url to fetch via the socket connection
+	 * @param keepAlive whether to ask the server to keep the connection open
+	 * @throws IOException
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, boolean keepAlive)
+		throws IOException
+	{
+		printGetRequest(writer, url, keepAlive, Collections.emptyMap());
+	}
+
+	/**
+	 * Writes a simple HTTP GET request to the provided socket writer, as with
+	 * {@link #printGetRequest(PrintWriter, URL, boolean)}, adding the given
+	 * header fields.
+	 * @param writer    a writer created from a socket connection
+	 * @param url       the url to fetch via the socket connection
+	 * @param keepAlive whether to ask the server to keep the connection open
+	 * @param fields    the header fields to add to the request
+	 * @throws IOException
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, boolean keepAlive,
+		Map<String, String> fields) throws IOException
+	{
 		String host = url.getHost();
 		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 		writer.printf("GET %s HTTP/1.1\r\n", resource);
 		writer.printf("Host: %s\r\n", host);
-		writer.printf("Connection: close\r\n");
+		writer.printf("Connection: %s\r\n", keepAlive ? "keep-alive" : "close");
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			writer.printf("%s: %s\r\n", field.getKey(), field.getValue());
+		}
 		writer.printf("\r\n");
 		writer.flush();
+		if (writer.checkError()) {
+			throw new IOException("Unable to send request for " + url);
+		}
 	}
 
 	/**
@@ -135,4 +335,401 @@ public class HttpsFetcher {
 	public static List<String> getContent(BufferedReader response) throws IOException {
 		return response.lines().collect(Collectors.toList());
 	}
+
+	/**
+	 * Gets the header fields from the raw input of a socket connection, reading
+	 * no further than the blank line ending them so that the body can be framed.
+	 * @param input the buffered input of a socket connection
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if the connection closes before a status line
+	 *
+	 * @see #getHeaderFields(BufferedReader)
+	 */
+	public static Map<String, List<String>> getHeaderFields(InputStream input) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		String line = readLine(input);
+		if (line == null) {
+			throw new EOFException("Connection closed before a response");
+		}
+		results.put(null, List.of(line));
+
+		while ((line = readLine(input)) != null && !line.isBlank()) {
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = line.substring(0, colon).strip();
+			results.putIfAbsent(name, new ArrayList<>());
+			results.get(name).add(line.substring(colon + 1).strip());
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring the case of its name.
+	 * @param headers the HTTP/1.1 headers to search
+	 * @param name    the name of the header
+	 * @return the first value of the header, or {@code null} if absent
+	 */
+	public static String getHeader(Map<String, List<String>> headers, String name) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the body of a response into the provided output, as framed by its
+	 * chunked Transfer-Encoding or its Content-Length. A response with neither
+	 * ends when the server closes the connection.
+	 * @param input   the buffered input of a socket connection, after the headers
+	 * @param headers the headers of the response
+	 * @param body    the output to which to write the body
+	 * @return {@code true} if the end of the body was found without closing the
+	 *         connection, which may then be reused
+	 * @throws IOException if the connection closes in the middle of the body
+	 */
+	public static boolean readBody(InputStream input, Map<String, List<String>> headers,
+		ByteArrayOutputStream body) throws IOException
+	{
+		return readBody(input, headers, body, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the body of a response into the provided output, as with
+	 * {@link #readBody(InputStream, Map, ByteArrayOutputStream)}, but stops once
+	 * more than limit bytes have been read. A body cut short this way leaves the
+	 * connection unusable, and is recognized by the output holding more than
+	 * limit bytes.
+	 * @param input   the buffered input of a socket connection, after the headers
+	 * @param headers the headers of the response
+	 * @param body    the output to which to write the body
+	 * @param limit   the largest body to read in full
+	 * @return {@code true} if the end of the body was found without closing the
+	 *         connection, which may then be reused
+	 * @throws IOException if the connection closes in the middle of the body
+	 */
+	public static boolean readBody(InputStream input, Map<String, List<String>> headers,
+		ByteArrayOutputStream body, long limit) throws IOException
+	{
+		BodyInputStream stream = new BodyInputStream(input, headers, limit);
+		stream.transferTo(body);
+		return stream.isFramed();
+	}
+
+	/**
+	 * Decodes a body by its Content-Encoding and splits it into lines of UTF-8
+	 * text, decompressing it as it is read so that the whole of the decoded
+	 * body is never held as bytes.
+	 * @param body     the body of a response, as framed on the wire
+	 * @param encoding the value of the Content-Encoding header, or {@code null}
+	 *                 if absent
+	 * @param maxText  the largest decoded text to read, in characters
+	 * @return the lines of the body, or {@code null} if the encoding is not
+	 *         supported or the decoded text is larger than maxText
+	 * @throws IOException if the body is not validly encoded
+	 */
+	public static List<String> decodeContent(InputStream body, String encoding, long maxText)
+		throws IOException
+	{
+		Inflater inflater = null;
+		InputStream decoded;
+		switch (encoding == null ? "identity" : encoding.strip().toLowerCase()) {
+			case "":
+			case "identity":
+				decoded = body;
+				break;
+			case "gzip":
+			case "x-gzip":
+				decoded = new GZIPInputStream(body);
+				break;
+			case "deflate":
+				// Many servers send raw deflate data rather than the zlib format
+				BufferedInputStream buffered = new BufferedInputStream(body);
+				buffered.mark(2);
+				int first = buffered.read();
+				int second = buffered.read();
+				buffered.reset();
+				boolean zlib = second >= 0 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+				inflater = new Inflater(!zlib);
+				decoded = new InflaterInputStream(buffered, inflater);
+				break;
+			default:
+				return null;
+		}
+
+		try (BufferedReader lines = new BufferedReader(
+			new InputStreamReader(decoded, StandardCharsets.UTF_8)))
+		{
+			ArrayList<String> content = new ArrayList<>();
+			long size = 0;
+			String line;
+			while ((line = lines.readLine()) != null) {
+				size += line.length() + 1;
+				if (size > maxText + 1) {
+					return null;
+				}
+				content.add(line);
+			}
+			return content;
+		}
+		finally {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Returns the declared length of the body of a response.
+	 * @param headers the headers of the response
+	 * @return the value of the Content-Length header, or -1 if absent
+	 * @throws IOException if the Content-Length is not a number
+	 */
+	public static long getContentLength(Map<String, List<String>> headers) throws IOException {
+		String length = getHeader(headers, "Content-Length");
+		if (length == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(length.strip());
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid Content-Length: " + length);
+		}
+	}
+
+	/**
+	 * Copies exactly the given number of bytes from the input to the output.
+	 * @param input  the input to read
+	 * @param output the output to write
+	 * @param length the number of bytes to copy
+	 * @throws IOException if the input ends first
+	 */
+	private static void copy(InputStream input, OutputStream output, long length)
+		throws IOException
+	{
+		byte[] buffer = new byte[8192];
+		while (length > 0) {
+			int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read < 0) {
+				throw new EOFException("Connection closed in the middle of a body");
+			}
+			output.write(buffer, 0, read);
+			length -= read;
+		}
+	}
+
+	/**
+	 * Reads a single line of ISO-8859-1 text ended by "\n" or "\r\n".
+	 * @param input the input to read
+	 * @return the line without its terminator, or {@code null} at the end of input
+	 * @throws IOException if unable to read
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = input.read()) >= 0) {
+			if (c == '\n') {
+				int end = line.length();
+				if (end > 0 && line.charAt(end - 1) == '\r') {
+					line.setLength(end - 1);
+				}
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	/**
+	 * Returns {@code true} if the response is an interim 1xx response, which is
+	 * followed by the real response on the same connection.
+	 * @param headers the HTTP/1.1 headers to check
+	 * @return {@code true} if the status code is between 100 and 199
+	 */
+	private static boolean isInformational(Map<String, List<String>> headers) {
+		int status = HtmlFetcher.getStatusCode(headers);
+		return status >= 100 && status < 200;
+	}
+
+	/**
+	 * Returns {@code true} if the server will keep the connection open after the
+	 * response: by default for HTTP/1.1, or if asked to for HTTP/1.0.
+	 * @param headers the HTTP/1.1 headers to check
+	 * @return {@code true} if the connection may be reused
+	 */
+	private static boolean isKeepAlive(Map<String, List<String>> headers) {
+		String connection = getHeader(headers, "Connection");
+		connection = connection == null ? "" : connection.toLowerCase();
+		if (headers.get(null).get(0).startsWith("HTTP/1.0")) {
+			return connection.contains("keep-alive");
+		}
+		return !connection.contains("close");
+	}
+
+	/**
+	 * The body of a response, read from its connection as framed by its chunked
+	 * Transfer-Encoding or its Content-Length, or until the server closes the
+	 * connection if it has neither. At most one byte more than a limit is read,
+	 * after which the body ends early and is marked truncated. Closing the body
+	 * leaves the connection open.
+	 */
+	private static class BodyInputStream extends InputStream {
+
+		/** The buffered input of the connection, after the headers. */
+		private final InputStream input;
+
+		/** Whether the body is sent in chunks. */
+		private final boolean chunked;
+
+		/** The largest body to read in full. */
+		private final long limit;
+
+		/** The bytes left in the current chunk or declared length, or -1 if unframed. */
+		private long remaining;
+
+		/** The number of bytes of the body read. */
+		private long count;
+
+		/** Whether any chunk has been started. */
+		private boolean started;
+
+		/** Whether the end of the body has been reached. */
+		private boolean done;
+
+		/** Whether the end of the body was found without closing the connection. */
+		private boolean framed;
+
+		/**
+		 * Initializes the body of a response.
+		 * @param input   the buffered input of a socket connection, after the headers
+		 * @param headers the headers of the response
+		 * @param limit   the largest body to read in full
+		 * @throws IOException if the Content-Length is not a number
+		 */
+		public BodyInputStream(InputStream input, Map<String, List<String>> headers,
+			long limit) throws IOException
+		{
+			String encoding = getHeader(headers, "Transfer-Encoding");
+			int status = HtmlFetcher.getStatusCode(headers);
+			this.input     = input;
+			this.chunked   = encoding != null && encoding.toLowerCase().contains("chunked");
+			this.limit     = limit;
+			this.remaining = chunked ? 0 : getContentLength(headers);
+			this.count     = 0;
+			this.started   = false;
+			this.done      = status == 204 || status == 304;
+			this.framed    = done;
+		}
+
+		/**
+		 * Returns whether the body was longer than the limit, and so cut short.
+		 * @return {@code true} if more than limit bytes were read
+		 */
+		public boolean isTruncated() {
+			return count > limit;
+		}
+
+		/**
+		 * Returns whether the whole body was read without closing the connection,
+		 * which may then be reused.
+		 * @return {@code true} if the end of the body was found by its framing
+		 */
+		public boolean isFramed() {
+			return framed;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (done || (remaining == 0 && !nextChunk())) {
+				return -1;
+			}
+
+			long allowed = limit == Long.MAX_VALUE ? length : limit + 1 - count;
+			if (remaining > 0) {
+				allowed = Math.min(allowed, remaining);
+			}
+			int read = input.read(buffer, offset, (int) Math.min(length, allowed));
+			if (read < 0) {
+				done = true;
+				if (remaining > 0) {
+					throw new EOFException("Connection closed in the middle of a body");
+				}
+				return -1;
+			}
+			count += read;
+			if (remaining > 0) {
+				remaining -= read;
+			}
+			if (count > limit) {
+				done = true;
+				framed = false;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() {
+			// the connection outlives the body
+		}
+
+		/**
+		 * Starts the next chunk of a chunked body, or ends a body framed by its
+		 * Content-Length once it has all been read.
+		 * @return {@code true} if there is more of the body to read
+		 * @throws IOException if the chunks are malformed or the connection closes
+		 */
+		private boolean nextChunk() throws IOException {
+			if (!chunked) {
+				done = true;
+				framed = true;
+				return false;
+			}
+			if (started) {
+				readLine(input);
+			}
+			started = true;
+
+			String line = readLine(input);
+			if (line == null) {
+				done = true;
+				throw new EOFException("Connection closed in a chunked body");
+			}
+			int extension = line.indexOf(';');
+			String size = (extension < 0 ? line : line.substring(0, extension)).strip();
+			try {
+				remaining = Long.parseLong(size, 16);
+			}
+			catch (NumberFormatException e) {
+				remaining = -1;
+			}
+			if (remaining < 0) {
+				done = true;
+				throw new IOException("Invalid chunk size: " + line);
+			}
+			if (remaining == 0) {
+				while ((line = readLine(input)) != null && !line.isEmpty()) {
+					// skip trailing headers
+				}
+				done = true;
+				framed = true;
+				return false;
+			}
+			return true;
+		}
+	}
 }
@@ -0,0 +1,63 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe, bounded table of canonical Strings. Every task building a
+ * local index produces its own copies of the same stems and locations; passing
+ * them through a shared interner means each distinct String is kept once,
+ * however many local indexes and index maps refer to it. The interners of
+ * {@link StemCache} and {@link InvertedIndexBuilder#LOCATIONS} are static and
+ * so live as long as the JVM, across every index built in it; the table is
+ * therefore bounded, and once full returns each String it does not already
+ * hold as is rather than keeping it.
+ * @author Jackson Raffety
+ * @see StemCache
+ */
+public class Interner {
+
+	/** The default maximum number of interned Strings. */
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+
+	/** The canonical instance of each String, keyed by itself. */
+	private final ConcurrentHashMap<String, String> strings;
+
+	/** The maximum number of interned Strings. */
+	private final int capacity;
+
+	/**
+	 * Initializes an empty interner.
+	 * @param capacity The maximum number of interned Strings.
+	 */
+	public Interner(int capacity) {
+		this.strings  = new ConcurrentHashMap<>();
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Initializes an empty interner with the default capacity.
+	 */
+	public Interner() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns the canonical instance of a String, which is the given String if
+	 * no equal String has been interned yet.
+	 * @param string  The String to intern.
+	 * @return String The canonical instance equal to string.
+	 */
+	public String intern(String string) {
+		String canonical = strings.get(string);
+		if (canonical == null && strings.size() < capacity) {
+			canonical = strings.putIfAbsent(string, string);
+		}
+		return canonical != null ? canonical : string;
+	}
+
+	/**
+	 * Returns the number of distinct Strings interned.
+	 * @return int The number of interned Strings.
+	 */
+	public int size() {
+		return strings.size();
+	}
+}
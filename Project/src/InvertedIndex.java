@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -16,7 +17,10 @@ import java.util.TreeSet;
  * in file, TreeSet<Integer> the count of how many times that stemmed
  * word appeared in the Path>>.
  * Also contains search functionality supported by the SearchResult and
- * SearchBuilder classes.
+ * SearchBuilder classes. Stems may be pruned, either as stopwords before they
+ * are added or for appearing in too many locations afterwards; pruned stems are
+ * neither stored nor searched, but are still counted in each location's count
+ * so that scores are unchanged.
  * @author Jackson Raffety
  */
 public class InvertedIndex {
@@ -33,12 +37,50 @@ public class InvertedIndex {
 	 */
 	private final TreeMap<String, Integer> count;
 	
+	/**
+	 * The stems which are not stored or searched, though still counted.
+	 */
+	private final HashSet<String> pruned;
+	
+	/**
+	 * The number of positions of pruned stems which were not stored.
+	 */
+	private long prunedPositions;
+	
+	/**
+	 * The generation of the index, which stamps each map of paths and set of
+	 * positions it creates. Those of an earlier generation may be shared with a
+	 * snapshot, and so are copied before being modified.
+	 */
+	private long generation;
+	
 	/**
 	 * Default constructor to initialize our two maps.
 	 */
 	public InvertedIndex() {
-		this.index = new TreeMap<>();
-		this.count = new TreeMap<>();
+		this.index  = new TreeMap<>();
+		this.count  = new TreeMap<>();
+		this.pruned = new HashSet<>();
+		this.prunedPositions = 0;
+		this.generation = 0;
+	}
+	
+	/**
+	 * Snapshot constructor which shares the paths and positions of each stem
+	 * with another index rather than copying them, reading them directly rather
+	 * than through any overridden views. Only the stems and the word counts are
+	 * copied. The other index moves on to a new generation, so that it copies
+	 * the paths or positions of a stem before modifying them, and the snapshot
+	 * never changes. The snapshot itself must never be modified.
+	 * @param other The index to snapshot.
+	 */
+	protected InvertedIndex(InvertedIndex other) {
+		this.index  = new TreeMap<>(other.index);
+		this.count  = new TreeMap<>(other.count);
+		this.pruned = new HashSet<>(other.pruned);
+		this.prunedPositions = other.prunedPositions;
+		this.generation = other.generation;
+		other.generation++;
 	}
 	
 	/**
@@ -86,11 +128,17 @@ public class InvertedIndex {
 	 *     in the path, saved to the TreeSet<Integer> structure.
 	 */
 	public void add(String word, String path, int count) {
-		this.index.putIfAbsent(word, new TreeMap<String, TreeSet<Integer>>());
-		this.index.get(word).putIfAbsent(path, new TreeSet<Integer>());
+		if (this.pruned.contains(word)) {
+			this.prunedPositions++;
+			if (this.count.getOrDefault(path, 0) < count) {
+				this.count.put(path, count);
+			}
+			return;
+		}
+		TreeSet<Integer> positions = this.getPositions(word, path);
 		int current = this.count.getOrDefault(path, 0);
 		if (current < count) {
-			this.index.get(word).get(path).add(count);
+			positions.add(count);
 			this.count.put(path, count);
 		}
 	}
@@ -101,9 +149,15 @@ public class InvertedIndex {
 	 */
 	public void addAll(InvertedIndex ind) {
 		for (String key1 : ind.getStemSet()) {
-			this.index.putIfAbsent(key1, new TreeMap<String, TreeSet<Integer>>());
+			if (this.pruned.contains(key1)) {
+				this.prunedPositions += ind.getPositionCount(key1);
+				continue;
+			}
+			TreeMap<String, TreeSet<Integer>> paths = this.getPaths(key1);
 			for (String key2 : ind.getPathSet(key1)) {
-				this.index.get(key1).putIfAbsent(key2, new TreeSet<Integer>(ind.getPathCountSet(key1, key2)));
+				if (!paths.containsKey(key2)) {
+					paths.put(key2, new PositionSet(this.generation, ind.getPathCountSet(key1, key2)));
+				}
 			}
 		}
 		for (String path : ind.getCount().keySet()) {
@@ -111,6 +165,177 @@ public class InvertedIndex {
 		}
 	}
 	
+	/**
+	 * Takes an InvertedIndex and adds all of its elements to this.index, shifting
+	 * each of its positions by offset. Unlike {@link #add(String, String, int)},
+	 * positions need not arrive in increasing order, so indexes built from
+	 * consecutive pieces of one file may be combined in any order.
+	 * @param ind    The data structure over which to iterate and add its elements to this.index.
+	 * @param offset The amount to add to each position of ind.
+	 */
+	public void addAll(InvertedIndex ind, int offset) {
+		for (String key1 : ind.getStemSet()) {
+			if (this.pruned.contains(key1)) {
+				this.prunedPositions += ind.getPositionCount(key1);
+				continue;
+			}
+			for (String key2 : ind.getPathSet(key1)) {
+				TreeSet<Integer> positions = this.getPositions(key1, key2);
+				for (int position : ind.getPathCountSet(key1, key2)) {
+					positions.add(position + offset);
+				}
+			}
+		}
+		for (String path : ind.getCount().keySet()) {
+			int shifted = ind.getCount().get(path) + offset;
+			this.count.put(path, Math.max(this.count.getOrDefault(path, 0), shifted));
+		}
+	}
+	
+	/**
+	 * Adds several indexes to this.index, shifting each of their positions by the
+	 * offset given for that index, as with {@link #addAll(InvertedIndex, int)}.
+	 * @param pieces  The indexes to add, in order.
+	 * @param offsets The amount to add to each position of the index at the same
+	 *     place in pieces.
+	 */
+	public void addAll(InvertedIndex[] pieces, int[] offsets) {
+		for (int i = 0; i < pieces.length; i++) {
+			this.addAll(pieces[i], offsets[i]);
+		}
+	}
+	
+	/**
+	 * Returns the paths of a stem which this index may modify, adding the stem if
+	 * absent and copying its paths if they may be shared with a snapshot.
+	 * @param word The stem whose paths to modify.
+	 * @return     The modifiable map of paths to positions.
+	 */
+	private TreeMap<String, TreeSet<Integer>> getPaths(String word) {
+		TreeMap<String, TreeSet<Integer>> paths = this.index.get(word);
+		if (paths == null || ((PathMap) paths).generation != this.generation) {
+			paths = paths == null ? new PathMap(this.generation) : new PathMap(this.generation, paths);
+			this.index.put(word, paths);
+		}
+		return paths;
+	}
+	
+	/**
+	 * Returns the positions of a stem at a path which this index may modify,
+	 * adding them if absent and copying them if they may be shared with a
+	 * snapshot.
+	 * @param word The stem whose positions to modify.
+	 * @param path The path of the positions.
+	 * @return     The modifiable set of positions.
+	 */
+	private TreeSet<Integer> getPositions(String word, String path) {
+		TreeMap<String, TreeSet<Integer>> paths = this.getPaths(word);
+		TreeSet<Integer> positions = paths.get(path);
+		if (positions == null || ((PositionSet) positions).generation != this.generation) {
+			positions = positions == null
+				? new PositionSet(this.generation)
+				: new PositionSet(this.generation, positions);
+			paths.put(path, positions);
+		}
+		return positions;
+	}
+	
+	/**
+	 * Prunes the given stems as stopwords, removing any already stored. Pruned
+	 * stems added later are counted but not stored.
+	 * @param stems The stems to prune.
+	 */
+	public void addStopwords(Collection<String> stems) {
+		for (String stem : stems) {
+			this.pruneStem(stem);
+		}
+	}
+	
+	/**
+	 * Prunes every stem found in more than the given fraction of locations, as
+	 * such stems add to the size of the index and the cost of searching it but
+	 * do little to distinguish one location from another.
+	 * @param maxFrequency The largest fraction of locations a stem may appear in.
+	 * @return int         The number of stems pruned.
+	 */
+	public int prune(double maxFrequency) {
+		double limit = maxFrequency * this.count.size();
+		ArrayList<String> frequent = new ArrayList<>();
+		for (String stem : this.index.keySet()) {
+			if (this.index.get(stem).size() > limit) {
+				frequent.add(stem);
+			}
+		}
+		for (String stem : frequent) {
+			this.pruneStem(stem);
+		}
+		return frequent.size();
+	}
+	
+	/**
+	 * Adds a stem to the pruned stems, removing it from the index if stored.
+	 * @param stem The stem to prune.
+	 */
+	private void pruneStem(String stem) {
+		this.pruned.add(stem);
+		TreeMap<String, TreeSet<Integer>> paths = this.index.remove(stem);
+		if (paths != null) {
+			for (TreeSet<Integer> positions : paths.values()) {
+				this.prunedPositions += positions.size();
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether a stem has been pruned.
+	 * @param stem     The stem to check.
+	 * @return boolean Whether the stem is pruned.
+	 */
+	public boolean isPruned(String stem) {
+		return this.pruned.contains(stem);
+	}
+	
+	/**
+	 * Returns the number of stems which have been pruned.
+	 * @return int The number of pruned stems.
+	 */
+	public int getPrunedCount() {
+		return this.pruned.size();
+	}
+	
+	/**
+	 * Returns the number of positions of pruned stems which were not stored.
+	 * @return long The number of pruned positions.
+	 */
+	public long getPrunedPositions() {
+		return this.prunedPositions;
+	}
+	
+	/**
+	 * Returns the number of positions stored for a stem across every location.
+	 * @param word  The stem whose positions to count.
+	 * @return long The number of positions of the stem.
+	 */
+	public long getPositionCount(String word) {
+		long positions = 0;
+		for (String path : this.getPathSet(word)) {
+			positions += this.getPathCountSet(word, path).size();
+		}
+		return positions;
+	}
+	
+	/**
+	 * Returns the number of positions stored across every stem and location.
+	 * @return long The number of positions in the index.
+	 */
+	public long getPositionCount() {
+		long positions = 0;
+		for (String word : this.getStemSet()) {
+			positions += this.getPositionCount(word);
+		}
+		return positions;
+	}
+	
 	/**
 	 * A safe view of the keyset representing index.get(word).get(path).keySet().
 	 * @param word        The word from which to find our path.
@@ -238,6 +463,70 @@ public class InvertedIndex {
 		return this.getStemSet().toString();
 	}
 	
+	/** The copy-on-write structures of the index **/
+	
+	/**
+	 * The paths of a stem, stamped with the generation of the index which
+	 * created them.
+	 */
+	private static class PathMap extends TreeMap<String, TreeSet<Integer>> {
+		
+		/** Unused; the index is never serialized. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The generation of the index which created the map. */
+		private final long generation;
+		
+		/**
+		 * Initializes an empty map of paths.
+		 * @param generation The generation of the index creating the map.
+		 */
+		public PathMap(long generation) {
+			this.generation = generation;
+		}
+		
+		/**
+		 * Initializes a map of paths sharing the positions of another.
+		 * @param generation The generation of the index creating the map.
+		 * @param other      The paths to copy.
+		 */
+		public PathMap(long generation, TreeMap<String, TreeSet<Integer>> other) {
+			super(other);
+			this.generation = generation;
+		}
+	}
+	
+	/**
+	 * The positions of a stem at a path, stamped with the generation of the
+	 * index which created them.
+	 */
+	private static class PositionSet extends TreeSet<Integer> {
+		
+		/** Unused; the index is never serialized. */
+		private static final long serialVersionUID = 1L;
+		
+		/** The generation of the index which created the set. */
+		private final long generation;
+		
+		/**
+		 * Initializes an empty set of positions.
+		 * @param generation The generation of the index creating the set.
+		 */
+		public PositionSet(long generation) {
+			this.generation = generation;
+		}
+		
+		/**
+		 * Initializes a set of positions copying another.
+		 * @param generation The generation of the index creating the set.
+		 * @param other      The positions to copy.
+		 */
+		public PositionSet(long generation, Collection<Integer> other) {
+			super(other);
+			this.generation = generation;
+		}
+	}
+	
 	/** The SearchResult inner class **/
 
 	/**
@@ -1,15 +1,18 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import java.util.zip.GZIPInputStream;
 
 /** 
  * Builder class for our custom data type Inverted Index. Contains functions
@@ -23,14 +26,33 @@ public class InvertedIndexBuilder {
 	 */
 	private final InvertedIndex index;
 	
+	/**
+	 * The extension of gzip-compressed files.
+	 */
+	public static final String GZIP = ".gz";
+	
+	/**
+	 * The size of the buffer used to decompress gzip-compressed files.
+	 */
+	public static final int GZIP_BUFFER = 1 << 16;
+	
 	/**
 	 * IS_TEXT is a lambda to aid our Files stream in parsing.
 	 * Finds each regular file and determines their type by
-	 * taking the file extension toLowerCase() and scanning for 'text' or 'txt'.
+	 * taking the file extension toLowerCase() and scanning for 'text' or 'txt',
+	 * optionally followed by '.gz' for gzip-compressed text.
 	 */
 	public static final Predicate<Path> IS_TEXT = path ->
 		(Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
-		&& (checkExtension(path, ".text", ".txt"));
+		&& (checkExtension(path, ".text", ".txt")
+			|| checkExtension(path, ".text" + GZIP, ".txt" + GZIP));
+	
+	/**
+	 * The canonical instance of each location, shared by every builder so that
+	 * the local indexes of each task refer to the same String. Kept for the life
+	 * of the JVM, up to the capacity of the interner.
+	 */
+	public static final Interner LOCATIONS = new Interner();
 	
 	/**
 	 * Constructs the InvertedIndexBuilder
@@ -41,7 +63,8 @@ public class InvertedIndexBuilder {
 	}
 	
 	/**
-	 * Builds and stems the given InvertedIndex of index.
+	 * Builds and stems the given InvertedIndex of index, parsing each text file
+	 * as the walk finds it rather than collecting them first.
 	 * @param startPath The starting path of our pathwalk.
 	 * @throws IOException
 	 * @throws InterruptedException 
@@ -49,28 +72,40 @@ public class InvertedIndexBuilder {
 	public void buildInvertedIndex(Path startPath)
 		throws IOException, InterruptedException
 	{
-		for (Path path : getTextFiles(startPath)) {
-			parseFile(path);
+		try (Stream<Path> pathwalk = Files.walk(startPath,
+			FileVisitOption.FOLLOW_LINKS))
+		{
+			Iterable<Path> paths = pathwalk.filter(IS_TEXT)::iterator;
+			for (Path path : paths) {
+				parseFile(path);
+			}
 		}
 	}
 	
-	/** 
-	 * buildPathList takes startPath and walks it to extract all following files.
-	 * These files are walked and identified with IS_TEXT, collected and
-	 * saved to pathwalk as an ArrayList<Path> object and returned.
-	 * @param startPath  	   The path at which to begin the path walk.
-	 * @return ArrayList<Path> A list of walked paths.
-	 * @throws IOException
+	/**
+	 * Walks the directories under startPath in parallel on the given WorkQueue,
+	 * passing each text file to action as soon as it is found. Each directory is
+	 * listed by its own task, so no list of paths is ever held in memory.
+	 * Symbolic links are followed as with {@link FileVisitOption#FOLLOW_LINKS},
+	 * except that a link back to one of its own ancestors is skipped rather than
+	 * failing the walk. The walk is complete once the queue is finished.
+	 * @param startPath The path at which to begin the walk.
+	 * @param queue     The WorkQueue on which to list directories.
+	 * @param action    The action to take on each text file, on a queue thread.
+	 * @throws IOException if unable to read startPath
 	 */
-	public static ArrayList<Path> getTextFiles(Path startPath) throws IOException {
-	    ArrayList<Path> pathList = new ArrayList<>();
-	    try (Stream<Path> pathwalk = Files.walk(startPath,
-	    	FileVisitOption.FOLLOW_LINKS))
-	    {
-	    	pathList.addAll(pathwalk.filter(p -> IS_TEXT.test(p))
-	    			.collect(Collectors.toList()));
-	    }
-		return pathList;
+	public static void walkTextFiles(Path startPath, WorkQueue queue,
+		Consumer<Path> action) throws IOException
+	{
+		BasicFileAttributes attrs = Files.readAttributes(startPath,
+			BasicFileAttributes.class);
+		if (attrs.isDirectory()) {
+			queue.execute(new DirectoryTask(new Directory(startPath, attrs, null),
+				queue, action));
+		}
+		else if (IS_TEXT.test(startPath)) {
+			action.accept(startPath);
+		}
 	}
 	
 	/**
@@ -85,26 +120,104 @@ public class InvertedIndexBuilder {
 	
 	/**
 	 * A static helper method to parse an entire file line by line and add its contents
-	 * to index.
+	 * to index. Lines are tokenized in place within the reader's buffer.
 	 * @param path  The path to parse.
 	 * @param index The InvertedIndex to build.
 	 * @throws IOException
 	 */
 	public static void parseFile(Path path, InvertedIndex index) throws IOException {
-		try (BufferedReader reader = Files.newBufferedReader(path,
-			StandardCharsets.UTF_8)) 
-		{
-			String line = reader.readLine();
+		if (isCompressed(path)) {
+			parseCompressed(path, index);
+		}
+		else {
+			parseRange(path, 0, Long.MAX_VALUE, index);
+		}
+	}
+	
+	/**
+	 * A static helper method to parse a gzip-compressed file line by line as it
+	 * is decompressed, adding its contents to index under the compressed path.
+	 * @param path  The path to parse.
+	 * @param index The InvertedIndex to build.
+	 * @return int  The number of words parsed.
+	 * @throws IOException
+	 */
+	public static int parseCompressed(Path path, InvertedIndex index) throws IOException {
+		try (BufferedReader reader = newReader(path)) {
+			int counter = 1;
+			TextTokenizer tokenizer = new TextTokenizer();
+			String pathStr = LOCATIONS.intern(path.toString());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					index.add(TextFileStemmer.stemWord(tokenizer.token()),
+						pathStr, counter++);
+				}
+			}
+			return counter - 1;
+		}
+	}
+	
+	/**
+	 * Opens a UTF-8 text file for reading, decompressing it as it is read if it
+	 * is gzip-compressed. Malformed input is reported as with
+	 * {@link Files#newBufferedReader(Path, java.nio.charset.Charset)}.
+	 * @param path            The path of the file to open.
+	 * @return BufferedReader A reader of the decompressed text.
+	 * @throws IOException if unable to open the file
+	 */
+	public static BufferedReader newReader(Path path) throws IOException {
+		if (!isCompressed(path)) {
+			return Files.newBufferedReader(path, StandardCharsets.UTF_8);
+		}
+		InputStream input = Files.newInputStream(path);
+		try {
+			return new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(input, GZIP_BUFFER),
+				StandardCharsets.UTF_8.newDecoder()));
+		}
+		catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Determines whether a file is gzip-compressed by its extension. Compressed
+	 * files must be read whole, since they cannot be split into byte ranges.
+	 * @param path     The path to check.
+	 * @return boolean Whether the path ends with '.gz'.
+	 */
+	public static boolean isCompressed(Path path) {
+		return path.toString().toLowerCase().endsWith(GZIP);
+	}
+	
+	/**
+	 * A static helper method to parse a range of bytes of a file line by line and
+	 * add its contents to index, numbering positions from the start of the range.
+	 * @param path  The path to parse.
+	 * @param start The offset of the first byte to parse, at the start of a line.
+	 * @param end   The offset (exclusive) at which to stop, at the start of a line.
+	 * @param index The InvertedIndex to build.
+	 * @return int  The number of words parsed.
+	 * @throws IOException
+	 */
+	public static int parseRange(Path path, long start, long end, InvertedIndex index)
+		throws IOException
+	{
+		try (ChannelLineReader reader = new ChannelLineReader(path, start, end)) {
 			int counter = 1;
-			SnowballStemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-			String pathStr = path.toString();
-			while (line != null) {
-				for (String word : TextParser.parse(line)) {
-					index.add(TextFileStemmer.stemWord(word, stemmer),
+			TextTokenizer tokenizer = new TextTokenizer();
+			String pathStr = LOCATIONS.intern(path.toString());
+			while (reader.nextLine()) {
+				tokenizer.reset(reader.buffer(), reader.start(), reader.end());
+				while (tokenizer.next()) {
+					index.add(TextFileStemmer.stemWord(tokenizer.token()),
 						pathStr, counter++);
 				}
-				line = reader.readLine();
 			}
+			return counter - 1;
 		}
 	}
 	
@@ -121,4 +234,123 @@ public class InvertedIndexBuilder {
 		String pathStr = path.toString().toLowerCase();
 		return pathStr.endsWith(extension1) || pathStr.endsWith(extension2);
 	}
+	
+	/**
+	 * A directory being walked, linked to the directories above it so that
+	 * symbolic links back to an ancestor can be detected.
+	 */
+	private static class Directory {
+		
+		/**
+		 * The path of the directory.
+		 */
+		private final Path path;
+		
+		/**
+		 * The unique key of the directory, or null if the file system has none.
+		 */
+		private final Object key;
+		
+		/**
+		 * The directory above this one in the walk, or null at the start.
+		 */
+		private final Directory parent;
+		
+		/**
+		 * Initializes a directory.
+		 * @param path   The path of the directory.
+		 * @param attrs  The attributes of the directory.
+		 * @param parent The directory above this one, or null at the start.
+		 */
+		public Directory(Path path, BasicFileAttributes attrs, Directory parent) {
+			this.path   = path;
+			this.key    = attrs.fileKey();
+			this.parent = parent;
+		}
+		
+		/**
+		 * Determines whether this directory is the same as one of its ancestors.
+		 * @return boolean True if walking this directory would loop.
+		 */
+		public boolean isLoop() {
+			for (Directory ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+				try {
+					if (key != null ? key.equals(ancestor.key)
+						: Files.isSameFile(path, ancestor.path))
+					{
+						return true;
+					}
+				}
+				catch (IOException e) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * The task class which lists a single directory, queueing a task for each
+	 * subdirectory and passing each text file to the action.
+	 * @author Jackson Raffety
+	 */
+	private static class DirectoryTask implements Runnable {
+		
+		/**
+		 * The directory to list.
+		 */
+		private final Directory directory;
+		
+		/**
+		 * The WorkQueue on which to list subdirectories.
+		 */
+		private final WorkQueue queue;
+		
+		/**
+		 * The action to take on each text file.
+		 */
+		private final Consumer<Path> action;
+		
+		/**
+		 * The task subclass which assigns a directory to a thread.
+		 * @param directory The directory to list.
+		 * @param queue     The WorkQueue on which to list subdirectories.
+		 * @param action    The action to take on each text file.
+		 */
+		public DirectoryTask(Directory directory, WorkQueue queue,
+			Consumer<Path> action)
+		{
+			this.directory = directory;
+			this.queue     = queue;
+			this.action    = action;
+		}
+		
+		@Override
+		public void run() {
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.path)) {
+				for (Path entry : entries) {
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+					}
+					catch (IOException e) {
+						// a broken link, which is never a text file
+						continue;
+					}
+					if (attrs.isDirectory()) {
+						Directory child = new Directory(entry, attrs, directory);
+						if (!child.isLoop()) {
+							queue.execute(new DirectoryTask(child, queue, action));
+						}
+					}
+					else if (IS_TEXT.test(entry)) {
+						action.accept(entry);
+					}
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Unable to list directory: " + directory.path);
+			}
+		}
+	}
 }
@@ -3,6 +3,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,13 +66,38 @@ public class LinkParser {
 	 * @return cleaned list of all http(s) links in the order they were found.
 	 */
 	public static ArrayList<String> listLinks(URL base, String html) {
-		ArrayList<String> links = new ArrayList<>();
+		return resolveLinks(base, listHrefs(html));
+	}
+
+	/**
+	 * Returns the href attribute of every anchor tag in the provided HTML, in
+	 * the order they were found, without converting them to absolute links.
+	 * @param html The raw html to search.
+	 * @return list of the href of each anchor tag in the order they were found.
+	 */
+	public static ArrayList<String> listHrefs(String html) {
+		ArrayList<String> hrefs = new ArrayList<>();
 		String hrefRegex        = "<a[^>]+href\\s*=\\s*\"(.+?)\"";
 		Pattern anchorPattern   = Pattern.compile(hrefRegex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 		Matcher hrefMatcher     = anchorPattern.matcher(html);
 		while (hrefMatcher.find()) {
+			hrefs.add(hrefMatcher.group(1));
+		}
+		return hrefs;
+	}
+
+	/**
+	 * Converts hrefs to absolute links using the base URL and cleans them
+	 * (removing fragments and encoding special characters as necessary).
+	 * @param base  The base url used to convert relative links to absolute.
+	 * @param hrefs The hrefs found in the html associated with the base url.
+	 * @return cleaned list of all http(s) links in the order given.
+	 */
+	public static ArrayList<String> resolveLinks(URL base, List<String> hrefs) {
+		ArrayList<String> links = new ArrayList<>();
+		for (String href : hrefs) {
 			try {
-				URL absolute = clean(new URL(base, hrefMatcher.group(1)));
+				URL absolute = clean(new URL(base, href));
 				links.add(absolute.toString());
 			}
 			catch (MalformedURLException e) {
@@ -0,0 +1,350 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A staged version of the InvertedIndexBuilder class. Files are read in chunks
+ * of lines by a read stage, each chunk is cleaned and stemmed by a stem stage,
+ * and the stems are rebased to their position in the file and added to the
+ * index by a merge stage. Each stage runs on its own bounded WorkQueue, so a
+ * few very large files are still spread across every stemming thread.
+ * Compressed files are decompressed by the read stage, so decompression
+ * overlaps with the stemming of earlier chunks.
+ * @author Jackson Raffety
+ */
+public class PipelinedInvertedIndexBuilder extends InvertedIndexBuilder {
+
+	/**
+	 * The approximate number of characters read into a single chunk.
+	 */
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * The ThreadSafeInvertedIndex.
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The number of threads reading files.
+	 */
+	private final int readers;
+
+	/**
+	 * The number of threads cleaning and stemming chunks.
+	 */
+	private final int stemmers;
+
+	/**
+	 * The number of threads merging stemmed chunks into the index.
+	 */
+	private final int mergers;
+
+	/**
+	 * The WorkQueue of the read stage.
+	 */
+	private WorkQueue readQueue;
+
+	/**
+	 * The WorkQueue of the stem stage.
+	 */
+	private WorkQueue stemQueue;
+
+	/**
+	 * The WorkQueue of the merge stage.
+	 */
+	private WorkQueue mergeQueue;
+
+	/**
+	 * Constructs the pipelined inverted index builder.
+	 * @param index    The thread safe inverted index to build.
+	 * @param readers  The number of threads reading files.
+	 * @param stemmers The number of threads cleaning and stemming chunks.
+	 * @param mergers  The number of threads merging chunks into the index.
+	 */
+	public PipelinedInvertedIndexBuilder(ThreadSafeInvertedIndex index,
+		int readers, int stemmers, int mergers)
+	{
+		super(index);
+		this.index    = index;
+		this.readers  = readers;
+		this.stemmers = stemmers;
+		this.mergers  = mergers;
+	}
+
+	/**
+	 * Builds and stems the given InvertedIndex of index through the read, stem
+	 * and merge stages. Each stage is finished before the next, since only then
+	 * is all of the work of the next stage queued. Directories are listed in
+	 * parallel by the read stage.
+	 * @param startPath The starting path of our pathwalk.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Override
+	public void buildInvertedIndex(Path startPath)
+		throws IOException, InterruptedException
+	{
+		this.readQueue  = new WorkQueue(readers, readers * WorkQueue.CAPACITY_PER_THREAD);
+		this.stemQueue  = new WorkQueue(stemmers, stemmers * WorkQueue.CAPACITY_PER_THREAD);
+		this.mergeQueue = new WorkQueue(mergers, mergers * WorkQueue.CAPACITY_PER_THREAD);
+		try {
+			walkTextFiles(startPath, readQueue, path -> readQueue.execute(new ReadTask(path)));
+		}
+		finally {
+			readQueue.finish();
+			readQueue.shutdown();
+			stemQueue.finish();
+			stemQueue.shutdown();
+			mergeQueue.finish();
+			mergeQueue.shutdown();
+			index.publish();
+		}
+	}
+
+	/**
+	 * Returns the metrics of the read stage.
+	 * @return The metrics, or {@code null} if nothing has been built.
+	 */
+	public WorkQueueStats getReadStats() {
+		return readQueue == null ? null : readQueue.getStats();
+	}
+
+	/**
+	 * Returns the metrics of the stem stage.
+	 * @return The metrics, or {@code null} if nothing has been built.
+	 */
+	public WorkQueueStats getStemStats() {
+		return stemQueue == null ? null : stemQueue.getStats();
+	}
+
+	/**
+	 * Returns the metrics of the merge stage.
+	 * @return The metrics, or {@code null} if nothing has been built.
+	 */
+	public WorkQueueStats getMergeStats() {
+		return mergeQueue == null ? null : mergeQueue.getStats();
+	}
+
+	/**
+	 * Tracks the stemmed chunks of a single file so they are merged in order,
+	 * with positions continuing from the end of the previous chunk.
+	 */
+	private class FileState {
+
+		/**
+		 * The location of the file within the index.
+		 */
+		private final String location;
+
+		/**
+		 * The local index the chunks of this file are merged into.
+		 */
+		private final InvertedIndex local;
+
+		/**
+		 * Stemmed chunks which arrived before the chunks preceding them.
+		 */
+		private final HashMap<Integer, ArrayList<String>> waiting;
+
+		/**
+		 * The number of chunks read from the file, or -1 while still reading.
+		 */
+		private int total;
+
+		/**
+		 * The next chunk to merge.
+		 */
+		private int next;
+
+		/**
+		 * The number of words merged so far.
+		 */
+		private int offset;
+
+		/**
+		 * Initializes the state of a file.
+		 * @param location The location of the file within the index.
+		 */
+		public FileState(String location) {
+			this.location = location;
+			this.local    = new InvertedIndex();
+			this.waiting  = new HashMap<>();
+			this.total    = -1;
+			this.next     = 0;
+			this.offset   = 0;
+		}
+
+		/**
+		 * Merges a stemmed chunk, along with any following chunks that were
+		 * waiting on it.
+		 * @param chunk The number of the chunk within the file.
+		 * @param stems The stems of the chunk in order.
+		 */
+		public synchronized void merge(int chunk, ArrayList<String> stems) {
+			waiting.put(chunk, stems);
+			while (waiting.containsKey(next)) {
+				for (String stem : waiting.remove(next)) {
+					local.add(stem, location, ++offset);
+				}
+				next++;
+			}
+			publish();
+		}
+
+		/**
+		 * Records the number of chunks in the file once it has been fully read.
+		 * @param total The number of chunks read.
+		 */
+		public synchronized void finish(int total) {
+			this.total = total;
+			publish();
+		}
+
+		/**
+		 * Adds the local index to the shared index once every chunk is merged.
+		 * A file which failed to read is never finished, and so never published.
+		 */
+		private void publish() {
+			if (next == total) {
+				index.addAll(local);
+				total = -1;
+			}
+		}
+	}
+
+	/**
+	 * The task class which reads a file into chunks of lines.
+	 * @author Jackson Raffety
+	 */
+	private class ReadTask implements Runnable {
+
+		/**
+		 * The path to read.
+		 */
+		private final Path path;
+
+		/**
+		 * The task subclass which assigns a file to a reading thread.
+		 * @param path The path to read.
+		 */
+		public ReadTask(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+			FileState state = new FileState(LOCATIONS.intern(path.toString()));
+			int chunk = 0;
+			try (BufferedReader reader = newReader(path)) {
+				ArrayList<String> lines = new ArrayList<>();
+				int size = 0;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lines.add(line);
+					size += line.length();
+					if (size >= CHUNK_SIZE) {
+						stemQueue.execute(new StemTask(state, chunk++, lines));
+						lines = new ArrayList<>();
+						size = 0;
+					}
+				}
+				if (!lines.isEmpty()) {
+					stemQueue.execute(new StemTask(state, chunk++, lines));
+				}
+				state.finish(chunk);
+			}
+			catch (IOException e) {
+				System.err.println("Thread failure: PipelinedInvertedIndexBuilder");
+			}
+		}
+	}
+
+	/**
+	 * The task class which cleans and stems a chunk of lines.
+	 * @author Jackson Raffety
+	 */
+	private class StemTask implements Runnable {
+
+		/**
+		 * The file the chunk belongs to.
+		 */
+		private final FileState state;
+
+		/**
+		 * The number of the chunk within the file.
+		 */
+		private final int chunk;
+
+		/**
+		 * The lines of the chunk.
+		 */
+		private final ArrayList<String> lines;
+
+		/**
+		 * The task subclass which assigns a chunk to a stemming thread.
+		 * @param state The file the chunk belongs to.
+		 * @param chunk The number of the chunk within the file.
+		 * @param lines The lines of the chunk.
+		 */
+		public StemTask(FileState state, int chunk, ArrayList<String> lines) {
+			this.state = state;
+			this.chunk = chunk;
+			this.lines = lines;
+		}
+
+		@Override
+		public void run() {
+			TextTokenizer tokenizer = new TextTokenizer();
+			ArrayList<String> stems = new ArrayList<>();
+			for (String line : lines) {
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					stems.add(TextFileStemmer.stemWord(tokenizer.token()));
+				}
+			}
+			mergeQueue.execute(new MergeTask(state, chunk, stems));
+		}
+	}
+
+	/**
+	 * The task class which merges a stemmed chunk into its file.
+	 * @author Jackson Raffety
+	 */
+	private class MergeTask implements Runnable {
+
+		/**
+		 * The file the chunk belongs to.
+		 */
+		private final FileState state;
+
+		/**
+		 * The number of the chunk within the file.
+		 */
+		private final int chunk;
+
+		/**
+		 * The stems of the chunk in order.
+		 */
+		private final ArrayList<String> stems;
+
+		/**
+		 * The task subclass which assigns a chunk to a merging thread.
+		 * @param state The file the chunk belongs to.
+		 * @param chunk The number of the chunk within the file.
+		 * @param stems The stems of the chunk in order.
+		 */
+		public MergeTask(FileState state, int chunk, ArrayList<String> stems) {
+			this.state = state;
+			this.chunk = chunk;
+			this.stems = stems;
+		}
+
+		@Override
+		public void run() {
+			state.merge(chunk, stems);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rules of a robots.txt file which apply to every crawler, that is, those
+ * of the groups for user agent "*". A path is allowed unless the longest rule
+ * matching it is a Disallow rule, with ties going to Allow. Rules may use "*"
+ * to match any run of characters and may end with "$" to match the end of the
+ * path, and otherwise match any path they are a prefix of.
+ * @author Jackson Raffety
+ * @see HostScheduler
+ */
+public class RobotsTxt {
+
+	/** The rules of a host with no usable robots.txt, which allow everything. */
+	public static final RobotsTxt ALLOW_ALL = new RobotsTxt(Collections.emptyList(), 0);
+
+	/** The Allow and Disallow rules, in the order given. */
+	private final List<Rule> rules;
+
+	/** The requested delay between requests in milliseconds, or 0 if none. */
+	private final long crawlDelay;
+
+	/**
+	 * Initializes a set of rules.
+	 * @param rules      The Allow and Disallow rules.
+	 * @param crawlDelay The requested delay between requests in milliseconds.
+	 */
+	private RobotsTxt(List<Rule> rules, long crawlDelay) {
+		this.rules      = rules;
+		this.crawlDelay = crawlDelay;
+	}
+
+	/**
+	 * Parses the lines of a robots.txt file, keeping the rules of every group
+	 * for user agent "*". A group is a run of User-agent lines followed by the
+	 * rules which apply to those agents.
+	 * @param lines       The lines of the file.
+	 * @return RobotsTxt  The rules which apply to this crawler.
+	 */
+	public static RobotsTxt parse(List<String> lines) {
+		ArrayList<Rule> rules = new ArrayList<>();
+		long crawlDelay = 0;
+		boolean inGroup = false;
+		boolean applies = false;
+
+		for (String line : lines) {
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String field = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+
+			if (field.equals("user-agent")) {
+				if (!inGroup) {
+					inGroup = true;
+					applies = false;
+				}
+				applies |= value.equals("*");
+				continue;
+			}
+			inGroup = false;
+			if (!applies) {
+				continue;
+			}
+
+			switch (field) {
+				case "allow":
+				case "disallow":
+					if (!value.isEmpty()) {
+						rules.add(new Rule(value, field.equals("allow")));
+					}
+					break;
+				case "crawl-delay":
+					try {
+						crawlDelay = Math.max(crawlDelay, (long) (Double.parseDouble(value) * 1000));
+					}
+					catch (NumberFormatException e) {
+						// ignore a malformed delay like any other unknown line
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return new RobotsTxt(rules, crawlDelay);
+	}
+
+	/**
+	 * Determines whether the rules allow a URL to be fetched.
+	 * @param url      The URL to check.
+	 * @return boolean True if the URL may be fetched.
+	 */
+	public boolean isAllowed(URL url) {
+		String path = url.getFile().isEmpty() ? "/" : url.getFile();
+		Rule best = null;
+		for (Rule rule : rules) {
+			if (rule.matches(path) && (best == null
+				|| rule.pattern.length() > best.pattern.length()
+				|| rule.pattern.length() == best.pattern.length() && rule.allow))
+			{
+				best = rule;
+			}
+		}
+		return best == null || best.allow;
+	}
+
+	/**
+	 * Returns the delay the rules request between requests.
+	 * @return long The delay in milliseconds, or 0 if none.
+	 */
+	public long getCrawlDelay() {
+		return crawlDelay;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d rules, crawl delay %d ms", rules.size(), crawlDelay);
+	}
+
+	/**
+	 * A single Allow or Disallow rule.
+	 */
+	private static class Rule {
+
+		/** The path pattern of the rule. */
+		private final String pattern;
+
+		/** Whether the rule allows rather than disallows matching paths. */
+		private final boolean allow;
+
+		/**
+		 * Initializes a rule.
+		 * @param pattern The path pattern of the rule.
+		 * @param allow   Whether the rule allows matching paths.
+		 */
+		public Rule(String pattern, boolean allow) {
+			this.pattern = pattern;
+			this.allow   = allow;
+		}
+
+		/**
+		 * Determines whether the pattern matches a path.
+		 * @param path     The path and query of a URL.
+		 * @return boolean True if the pattern matches.
+		 */
+		private boolean matches(String path) {
+			boolean anchored = pattern.endsWith("$");
+			String[] parts = (anchored ? pattern.substring(0, pattern.length() - 1) : pattern)
+				.split("\\*", -1);
+
+			if (!path.startsWith(parts[0])) {
+				return false;
+			}
+			int position = parts[0].length();
+			for (int i = 1; i < parts.length; i++) {
+				if (anchored && i == parts.length - 1) {
+					int last = path.length() - parts[i].length();
+					return last >= position && path.endsWith(parts[i]);
+				}
+				int found = path.indexOf(parts[i], position);
+				if (found < 0) {
+					return false;
+				}
+				position = found + parts[i].length();
+			}
+			return !anchored || position == path.length();
+		}
+	}
+}
@@ -127,6 +127,43 @@ public class SimpleJsonWriter {
 		return writer.toString();
 	}
 
+	/**
+	 * Writes the elements as a pretty JSON object whose values are strings.
+	 * @param elements The elements to write.
+	 * @param writer   The Writer to use.
+	 * @param level    The initial indent level.
+	 * @throws IOException
+	 */
+	public static void asStringObject(Map<String, String> elements, Writer writer, int level)
+		throws IOException
+	{
+		Iterator<String> iter = elements.keySet().iterator();
+		writer.write("{");
+		if (iter.hasNext()) {
+			writeStringEntry(elements, iter.next(), writer, level + 1);
+		}
+		while (iter.hasNext()) {
+			writer.write(",");
+			writeStringEntry(elements, iter.next(), writer, level + 1);
+		}
+		writer.write("\n");
+		indent("}", writer, level - 1);
+	}
+
+	/**
+	 * Writes the elements as a pretty JSON object whose values are strings to file.
+	 * @param elements The elements to write.
+	 * @param path     The file path to use.
+	 * @throws IOException
+	 */
+	public static void asStringObject(Map<String, String> elements, Path path)
+		throws IOException
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			asStringObject(elements, writer, 0);
+		}
+	}
+
 	/**
 	 * Writes the elements as a nested pretty JSON object. The generic notation used
 	 * allows this method to be used for any type of map with any type of nested
@@ -216,6 +253,23 @@ public class SimpleJsonWriter {
 		writer.write(": ");
 		writer.write(elements.get(item).toString());
 	}
+
+	/**
+	 * Writes an entry for some object whose values are strings.
+	 * @param elements The map from which to write.
+	 * @param item     The item to write.
+	 * @param writer   The Writer to write.
+	 * @param level    The level at which to write.
+	 * @throws IOException
+	 */
+	private static void writeStringEntry(Map<String, String> elements, String item,
+		Writer writer, int level) throws IOException
+	{
+		writer.write("\n");
+		quote(item, writer, level + 1);
+		writer.write(": ");
+		quote(elements.get(item), writer);
+	}
 	
 	/** Inverted Index JSON methods **/
 
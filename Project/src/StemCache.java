@@ -0,0 +1,207 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A thread-safe, bounded cache of words to their stems. Word frequencies are
+ * heavily skewed, so a few thousand words account for most stemming calls.
+ * Misses are stemmed by a stemmer owned by the calling thread, and cached while
+ * the cache has room; once full, the cache keeps the words it has and stems
+ * any others without caching them. Words are looked up through a key owned by
+ * the calling thread which wraps the token as is, so a hit copies nothing; the
+ * word is only made a String when it must be stemmed. Every stem is interned,
+ * in a table bounded like the cache, so words sharing a stem share one String.
+ * Hits and misses are counted so the hit rate can be reported.
+ * @author Jackson Raffety
+ * @see TextFileStemmer
+ */
+public class StemCache {
+
+	/** The default maximum number of cached words. */
+	public static final int DEFAULT_CAPACITY = 1 << 17;
+
+	/** The cached stems of each word. */
+	private final ConcurrentHashMap<Key, String> stems;
+
+	/** The canonical instance of each stem. */
+	private final Interner terms;
+
+	/** One stemmer and lookup key per thread, since neither is thread-safe. */
+	private final ThreadLocal<Worker> workers;
+
+	/** The maximum number of cached words. */
+	private final int capacity;
+
+	/** The number of lookups answered by the cache. */
+	private final LongAdder hits;
+
+	/** The number of lookups which had to be stemmed. */
+	private final LongAdder misses;
+
+	/**
+	 * Initializes an empty cache using the given stemming algorithm.
+	 * @param algorithm The stemming algorithm to use.
+	 * @param capacity  The maximum number of cached words.
+	 */
+	public StemCache(SnowballStemmer.ALGORITHM algorithm, int capacity) {
+		this.stems    = new ConcurrentHashMap<>();
+		this.terms    = new Interner(capacity);
+		this.workers  = ThreadLocal.withInitial(() -> new Worker(algorithm));
+		this.capacity = capacity;
+		this.hits     = new LongAdder();
+		this.misses   = new LongAdder();
+	}
+
+	/**
+	 * Returns the stem of a word, from the cache if possible.
+	 * @param word    The word to stem.
+	 * @return String The stemmed word.
+	 */
+	public String stem(CharSequence word) {
+		Worker worker = workers.get();
+		String stem = stems.get(worker.probe.wrap(word));
+		worker.probe.wrap(null);
+		if (stem != null) {
+			hits.increment();
+			return stem;
+		}
+
+		misses.increment();
+		String key = word.toString();
+		stem = terms.intern(worker.stemmer.stem(key).toString());
+		if (stems.size() < capacity) {
+			stems.putIfAbsent(new Key(key), stem);
+		}
+		return stem;
+	}
+
+	/**
+	 * Returns the number of cached words.
+	 * @return int The number of cached words.
+	 */
+	public int size() {
+		return stems.size();
+	}
+
+	/**
+	 * Returns the number of distinct stems produced.
+	 * @return int The number of distinct stems.
+	 */
+	public int getDistinctStems() {
+		return terms.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered by the cache.
+	 * @return long The number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups which had to be stemmed.
+	 * @return long The number of misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups answered by the cache.
+	 * @return double The hit rate, between 0 and 1.
+	 */
+	public double getHitRate() {
+		long hit = getHits();
+		long total = hit + getMisses();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("stems: %d cached of %d, %d distinct, %d hits, %d misses, %.1f%% hit rate",
+			size(), capacity, getDistinctStems(), getHits(), getMisses(), getHitRate() * 100);
+	}
+
+	/**
+	 * The stemmer and lookup key of one thread.
+	 */
+	private static class Worker {
+
+		/** The stemmer of the thread. */
+		private final SnowballStemmer stemmer;
+
+		/** The key reused to look up each word of the thread. */
+		private final Key probe;
+
+		/**
+		 * Initializes the stemmer and lookup key of a thread.
+		 * @param algorithm The stemming algorithm to use.
+		 */
+		public Worker(SnowballStemmer.ALGORITHM algorithm) {
+			this.stemmer = new SnowballStemmer(algorithm);
+			this.probe   = new Key(null);
+		}
+	}
+
+	/**
+	 * A word compared by its characters, so that a cached word may be found by
+	 * any CharSequence equal to it. Keys in the cache wrap immutable Strings;
+	 * the key of each thread wraps each word looked up only for the lookup.
+	 */
+	private static class Key {
+
+		/** The characters of the word. */
+		private CharSequence word;
+
+		/** The hash of the characters of the word. */
+		private int hash;
+
+		/**
+		 * Initializes a key.
+		 * @param word The word of the key, or null if none yet.
+		 */
+		public Key(CharSequence word) {
+			wrap(word);
+		}
+
+		/**
+		 * Makes this the key of another word.
+		 * @param word The word of the key, or null to release the last word.
+		 * @return Key This key.
+		 */
+		public Key wrap(CharSequence word) {
+			int hash = 0;
+			if (word != null) {
+				for (int i = 0; i < word.length(); i++) {
+					hash = 31 * hash + word.charAt(i);
+				}
+			}
+			this.word = word;
+			this.hash = hash;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			if (hash != key.hash || word.length() != key.word.length()) {
+				return false;
+			}
+			for (int i = 0; i < word.length(); i++) {
+				if (word.charAt(i) != key.word.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -1,7 +1,4 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.TreeSet;
 import opennlp.tools.stemmer.Stemmer;
@@ -13,6 +10,7 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  * @author University of San Francisco
  * @author Jackson Raffety
  * @see TextParser
+ * @see TextTokenizer
  */
 public class TextFileStemmer {
 
@@ -20,6 +18,10 @@ public class TextFileStemmer {
 	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer
 		.ALGORITHM.ENGLISH;
 
+	/** The shared cache of stems, used unless a specific stemmer is given. */
+	public static final StemCache CACHE = new StemCache(DEFAULT,
+		StemCache.DEFAULT_CAPACITY);
+
 	/**
 	 * Returns a set of unique (no duplicates) cleaned and stemmed words parsed
 	 * from the provided line.
@@ -27,7 +29,7 @@ public class TextFileStemmer {
 	 * @return TreeSet<String> A sorted set of unique cleaned and stemmed words.
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		return uniqueStems(line, new SnowballStemmer(DEFAULT));
+		return uniqueStems(line, new TreeSet<String>());
 	}
 	
 	/**
@@ -38,7 +40,11 @@ public class TextFileStemmer {
 	 * @return a sorted set of unique cleaned and stemmed words.
 	 */
 	public static TreeSet<String> uniqueStems(String line, TreeSet<String> toStem) {
-		return uniqueStems(line, toStem, new SnowballStemmer(DEFAULT));
+		TextTokenizer tokenizer = new TextTokenizer().reset(line);
+		while (tokenizer.next()) {
+			toStem.add(CACHE.stem(tokenizer.token()));
+		}
+		return toStem;
 	}
 	
 	/**
@@ -53,8 +59,9 @@ public class TextFileStemmer {
 	public static TreeSet<String> uniqueStems(String line, TreeSet<String> toStem,
 		Stemmer stemmer)
 	{
-		for (String word : TextParser.parse(line)) {
-			toStem.add(stemmer.stem(word).toString());
+		TextTokenizer tokenizer = new TextTokenizer().reset(line);
+		while (tokenizer.next()) {
+			toStem.add(stemmer.stem(tokenizer.token()).toString());
 		}
 		return toStem;
 	}
@@ -67,20 +74,16 @@ public class TextFileStemmer {
 	 * @return TreeSet<String> A sorted set of unique cleaned and stemmed words.
 	 */
 	public static TreeSet<String> uniqueStems(String line, Stemmer stemmer) {
-		TreeSet<String> stemmed_strings = new TreeSet<String>();
-		for (String word : TextParser.parse(line)) {
-			stemmed_strings.add(stemmer.stem(word).toString());
-		}
-		return stemmed_strings;
+		return uniqueStems(line, new TreeSet<String>(), stemmer);
 	}
 	
 	/**
-	 * Stems an individual word.
+	 * Stems an individual word using the shared cache.
 	 * @param word    The word to stem.
 	 * @return String The stemmed word.
 	 */
-	public static String stemWord(String word) {
-		return stemWord(word, new SnowballStemmer(DEFAULT));
+	public static String stemWord(CharSequence word) {
+		return CACHE.stem(word);
 	}
 	
 	/**
@@ -89,7 +92,7 @@ public class TextFileStemmer {
 	 * @param stemmer the stemmer algorithm to use.
 	 * @return the stemmed word.
 	 */
-	public static String stemWord(String word, Stemmer stemmer) {
+	public static String stemWord(CharSequence word, Stemmer stemmer) {
 		return stemmer.stem(word).toString(); 
 	}
 
@@ -102,13 +105,13 @@ public class TextFileStemmer {
 	 */
 	public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
 		TreeSet<String> stemmed = new TreeSet<String>();
-		try (BufferedReader reader = Files.newBufferedReader
-			(inputFile, StandardCharsets.UTF_8);) {
-			String line = reader.readLine();
-			SnowballStemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-			while (line != null) {
-				uniqueStems(line, stemmed, stemmer);
-				line = reader.readLine();
+		try (ChannelLineReader reader = new ChannelLineReader(inputFile)) {
+			TextTokenizer tokenizer = new TextTokenizer();
+			while (reader.nextLine()) {
+				tokenizer.reset(reader.buffer(), reader.start(), reader.end());
+				while (tokenizer.next()) {
+					stemmed.add(CACHE.stem(tokenizer.token()));
+				}
 			}
 		}
 		return stemmed.isEmpty() ? null : stemmed;
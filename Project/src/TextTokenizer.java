@@ -0,0 +1,201 @@
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * A single-pass tokenizer producing exactly the words of
+ * {@link TextParser#parse(String)} without building intermediate Strings or
+ * arrays. Lines of plain ASCII are scanned directly, cleaning, lowercasing and
+ * splitting as they go. Any other line is normalized, cleaned and lowercased
+ * once before being split, which keeps the original behavior for combining
+ * marks and locale-sensitive lowercasing. Each word is written into a reused
+ * buffer, so a word must be copied or consumed before advancing. This class is
+ * not thread-safe; use one tokenizer per thread.
+ * @author Jackson Raffety
+ * @see TextParser
+ */
+public class TextTokenizer {
+
+	/** The buffer holding the current word. */
+	private final StringBuilder token;
+
+	/** The buffer holding a cleaned line on the non-ASCII path. */
+	private final StringBuilder cleaned;
+
+	/** The text being split into words. */
+	private CharSequence source;
+
+	/** The position within source of the next character to scan. */
+	private int position;
+
+	/** The position within source at which the text ends. */
+	private int limit;
+
+	/** Whether source is raw ASCII text rather than an already cleaned line. */
+	private boolean ascii;
+
+	/**
+	 * Initializes a tokenizer with no text.
+	 */
+	public TextTokenizer() {
+		this.token   = new StringBuilder();
+		this.cleaned = new StringBuilder();
+		reset("");
+	}
+
+	/**
+	 * Starts splitting a new line of text into words.
+	 * @param text          The text to tokenize.
+	 * @return TextTokenizer This tokenizer, for convenience.
+	 */
+	public TextTokenizer reset(CharSequence text) {
+		return reset(text, 0, text.length());
+	}
+
+	/**
+	 * Starts splitting a range of a buffer into words, without copying it.
+	 * @param text          The buffer holding the line to tokenize.
+	 * @param start         The start of the line within the buffer.
+	 * @param end           The end (exclusive) of the line within the buffer.
+	 * @return TextTokenizer This tokenizer, for convenience.
+	 */
+	public TextTokenizer reset(CharSequence text, int start, int end) {
+		this.position = start;
+		this.limit    = end;
+		this.ascii    = isAscii(text, start, end) && !lowercasesAsciiSpecially();
+		if (ascii) {
+			this.source = text;
+			return this;
+		}
+
+		String normalized = Normalizer.normalize(text.subSequence(start, end),
+			Normalizer.Form.NFD);
+		cleaned.setLength(0);
+		for (int i = 0; i < normalized.length(); ) {
+			int cp = normalized.codePointAt(i);
+			if (Character.isAlphabetic(cp) || isSpace(cp)) {
+				cleaned.appendCodePoint(cp);
+			}
+			i += Character.charCount(cp);
+		}
+		String lowered = cleaned.toString().toLowerCase();
+		this.source = lowered;
+		this.limit  = lowered.length();
+
+		/*
+		 * TextParser strips only Character.isWhitespace from the ends before
+		 * splitting on Unicode spaces, so a line starting with a space such as
+		 * U+00A0 produces a leading empty word if any word follows it.
+		 */
+		int first = 0;
+		while (first < lowered.length() && Character.isWhitespace(lowered.charAt(first))) {
+			first++;
+		}
+		this.position = first;
+		if (first < lowered.length() && isSpace(lowered.charAt(first))) {
+			for (int i = first; i < lowered.length(); i++) {
+				if (!isSpace(lowered.charAt(i))) {
+					this.position = -first - 1;
+					break;
+				}
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Advances to the next word of the text.
+	 * @return boolean True if there was another word, now available from
+	 *     {@link #token()}.
+	 */
+	public boolean next() {
+		token.setLength(0);
+		if (position < 0) {
+			// emit the leading empty word, then continue from the first space
+			position = -position - 1;
+			return true;
+		}
+
+		while (position < limit) {
+			while (position < limit && isSpace(source.charAt(position))) {
+				position++;
+			}
+			while (position < limit) {
+				char c = source.charAt(position);
+				if (isSpace(c)) {
+					break;
+				}
+				if (!ascii) {
+					token.append(c);
+				}
+				else if (c >= 'a' && c <= 'z') {
+					token.append(c);
+				}
+				else if (c >= 'A' && c <= 'Z') {
+					token.append((char) (c + ('a' - 'A')));
+				}
+				position++;
+			}
+			if (token.length() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the current word. The returned buffer is overwritten by the next
+	 * call to {@link #next()}.
+	 * @return CharSequence The current word.
+	 */
+	public CharSequence token() {
+		return token;
+	}
+
+	/**
+	 * Determines whether every character of the text is ASCII.
+	 * @param text     The text to check.
+	 * @return boolean True if the text is entirely ASCII.
+	 */
+	public static boolean isAscii(CharSequence text) {
+		return isAscii(text, 0, text.length());
+	}
+
+	/**
+	 * Determines whether every character of a range of the text is ASCII.
+	 * @param text     The text to check.
+	 * @param start    The start of the range.
+	 * @param end      The end (exclusive) of the range.
+	 * @return boolean True if the range is entirely ASCII.
+	 */
+	public static boolean isAscii(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determines whether the code point is a Unicode space, as matched by
+	 * {@code (?U)\p{Space}} in {@link TextParser}.
+	 * @param cp       The code point to check.
+	 * @return boolean True if the code point is a space.
+	 */
+	public static boolean isSpace(int cp) {
+		return ((((1 << Character.SPACE_SEPARATOR)
+			| (1 << Character.LINE_SEPARATOR)
+			| (1 << Character.PARAGRAPH_SEPARATOR)) >> Character.getType(cp)) & 1) != 0
+			|| (cp >= 0x9 && cp <= 0xd) || cp == 0x85;
+	}
+
+	/**
+	 * Determines whether the default locale lowercases some ASCII letter to
+	 * something other than its ASCII lowercase, as Turkish and Azeri do for 'I'.
+	 * @return boolean True if the ASCII path cannot be used.
+	 */
+	private static boolean lowercasesAsciiSpecially() {
+		String language = Locale.getDefault().getLanguage();
+		return language.equals("tr") || language.equals("az");
+	}
+}
@@ -6,20 +6,73 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * A thread-safe version of the InvertedIndex class.
+ * A thread-safe version of the InvertedIndex class. Writers add to a private
+ * working copy of the index, while readers search an immutable published
+ * snapshot which is swapped in atomically by {@link #publish()}. Searches and
+ * {@link #writeIndex(Path)} therefore never wait on ingestion, and always see a
+ * consistent version of the index. Writes are not visible to readers until
+ * they are published, either explicitly or after every batch of ingests.
+ * Publishing does not copy the index: the snapshot shares the paths and
+ * positions of every stem with the working copy, which copies those of a stem
+ * only when it next modifies them, so a publish costs a copy of the stems and
+ * word counts and the two versions together hold little more than one.
  * @author Jackson
  */
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 	
-	/** The lock used to protect concurrent access to the underlying set. */
+	/** The lock used to protect concurrent access to the working copy. */
 	private final SimpleReadWriteLock lock;
 	
+	/** The most recently published, never modified, version of the index. */
+	private volatile InvertedIndex snapshot;
+	
+	/** The default number of calls to addAll which trigger a publish. */
+	public static final int DEFAULT_BATCH = 64;
+	
+	/** How many calls to addAll trigger a publish, or 0 to only publish explicitly. */
+	private final int batch;
+	
+	/** The number of calls to addAll since the last publish. */
+	private int ingested;
+	
 	/**
-	 * Initializes a thread-safe InvertedIndex with a custom lock.
+	 * Initializes a thread-safe InvertedIndex which only publishes explicitly.
 	 */
 	public ThreadSafeInvertedIndex() {
-		this.lock = new SimpleReadWriteLock();
-
+		this(0);
+	}
+	
+	/**
+	 * Initializes a thread-safe InvertedIndex which publishes after every batch
+	 * of calls to {@link #addAll(InvertedIndex)}.
+	 * @param batch How many calls to addAll trigger a publish, or 0 to only
+	 *     publish explicitly.
+	 */
+	public ThreadSafeInvertedIndex(int batch) {
+		this.lock     = new SimpleReadWriteLock();
+		this.snapshot = new InvertedIndex();
+		this.batch    = batch;
+		this.ingested = 0;
+	}
+	
+	/**
+	 * Atomically replaces the snapshot searched by readers with a new snapshot
+	 * of the working index.
+	 */
+	public void publish() {
+		lock.writeLock().lock();
+		
+		try     { publishLocked(); }
+		finally { lock.writeLock().unlock(); }
+	}
+	
+	/**
+	 * Replaces the snapshot with a new snapshot sharing the structure of the
+	 * working index. Must be called while holding the write lock.
+	 */
+	private void publishLocked() {
+		snapshot = new InvertedIndex(this);
+		ingested = 0;
 	}
 	
 	@Override
@@ -30,101 +83,157 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		finally { lock.writeLock().unlock(); }
 	}
 	
-	//@Override
+	@Override
 	public void addAll(InvertedIndex ind) {
 		lock.writeLock().lock();
 
-		try     { super.addAll(ind); }
+		try {
+			super.addAll(ind);
+			if (batch > 0 && ++ingested >= batch) {
+				publishLocked();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex ind, int offset) {
+		lock.writeLock().lock();
+		
+		try     { super.addAll(ind, offset); }
 		finally { lock.writeLock().unlock(); }
 	}
 
+	/**
+	 * Adds several indexes, as with {@link InvertedIndex#addAll(InvertedIndex[], int[])},
+	 * within a single write, so readers see either none or all of them.
+	 * @param pieces  The indexes to add, in order.
+	 * @param offsets The amount to add to each position of the index at the same
+	 *     place in pieces.
+	 */
+	@Override
+	public void addAll(InvertedIndex[] pieces, int[] offsets) {
+		lock.writeLock().lock();
+		
+		try {
+			for (int i = 0; i < pieces.length; i++) {
+				super.addAll(pieces[i], offsets[i]);
+			}
+			if (batch > 0 && ++ingested >= batch) {
+				publishLocked();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
-	public boolean contains(String word) {
-		lock.readLock().lock();
+	public void addStopwords(Collection<String> stems) {
+		lock.writeLock().lock();
 		
-		try     { return super.contains(word); }
-		finally { lock.readLock().unlock(); }
+		try {
+			super.addStopwords(stems);
+			publishLocked();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
 	}
 	
 	@Override
-	public boolean contains(String word, String location) {
-		lock.readLock().lock();
+	public int prune(double maxFrequency) {
+		lock.writeLock().lock();
 		
-		try     { return super.contains(word, location); }
-		finally { lock.readLock().unlock(); }
+		try {
+			int pruned = super.prune(maxFrequency);
+			publishLocked();
+			return pruned;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public boolean isPruned(String stem) {
+		return snapshot.isPruned(stem);
+	}
+	
+	@Override
+	public int getPrunedCount() {
+		return snapshot.getPrunedCount();
+	}
+	
+	@Override
+	public long getPrunedPositions() {
+		return snapshot.getPrunedPositions();
+	}
+	
+	@Override
+	public long getPositionCount(String word) {
+		return snapshot.getPositionCount(word);
+	}
+	
+	@Override
+	public long getPositionCount() {
+		return snapshot.getPositionCount();
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return snapshot.contains(word);
+	}
+	
+	@Override
+	public boolean contains(String word, String location) {
+		return snapshot.contains(word, location);
 	}
 	
 	@Override
 	public boolean contains(String word, String location, int position) {
-		lock.readLock().lock();
-		
-		try     { return super.contains(word, location, position); }
-		finally { lock.readLock().unlock(); }
+		return snapshot.contains(word, location, position);
 	}
 
 	@Override
 	public Collection<Integer> getPathCountSet(String word, String path) {
-		lock.readLock().lock();
-		
-		try     { return super.getPathCountSet(word, path);  }
-		finally { lock.readLock().unlock(); }
+		return snapshot.getPathCountSet(word, path);
 	}
 	
 	@Override
 	public Collection<String> getPathSet(String word) {
-		lock.readLock().lock();
-		
-		try     { return super.getPathSet(word);}
-		finally { lock.readLock().unlock(); }
+		return snapshot.getPathSet(word);
 	}
 
 	@Override
 	public Collection<String> getStemSet() {
-		lock.readLock().lock();
-		
-		try     { return super.getStemSet(); }
-		finally { lock.readLock().unlock(); }
+		return snapshot.getStemSet();
 	}
 	
 	@Override
 	public Map<String, Integer> getCount() {
-		lock.readLock().lock();
-		
-		try     { return super.getCount(); }
-		finally { lock.readLock().unlock(); }
+		return snapshot.getCount();
 	}
 		
 	@Override
 	public ArrayList<SearchResult> partialSearch(Set<String> toSearchFor) {
-		lock.readLock().lock();
-		
-		try     { return super.partialSearch(toSearchFor); }
-		finally { lock.readLock().unlock(); }
+		return snapshot.partialSearch(toSearchFor);
 	}
 	
 	@Override
 	public ArrayList<SearchResult> exactSearch(Set<String> toSearchFor) {
-		lock.readLock().lock();
-		
-		try     { return super.exactSearch(toSearchFor); }
-		finally { lock.readLock().unlock(); }
+		return snapshot.exactSearch(toSearchFor);
 	}
 	
 	@Override
 	public void writeIndex(Path printPath) throws IOException {
-		lock.readLock().lock();
-		
-		try     { super.writeIndex(printPath);  }
-		finally { lock.readLock().unlock(); }
+		snapshot.writeIndex(printPath);
 	}
 	
 	@Override
 	public String toString() {
-		lock.readLock().lock();
-		
-		try     { return super.toString();  }
-		finally { lock.readLock().unlock(); }
+		return snapshot.toString();
 	}
-
-	
 }
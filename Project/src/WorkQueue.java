@@ -3,7 +3,8 @@ import java.util.LinkedList;
 /**
  * A simple work queue implementation based on the IBM Developer article by
  * Brian Goetz. It is up to the user of this class to keep track of whether
- * there is any pending work remaining.
+ * there is any pending work remaining. Queue depth, wait and run times, and
+ * worker utilization are tracked by a {@link WorkQueueStats}.
  * @author University of San Francisco
  * @author Jackson Raffety
  * @see <a href="https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
@@ -23,7 +24,13 @@ public class WorkQueue {
 	private final PoolWorker[] workers;
 
 	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	private final LinkedList<Job> queue;
+
+	/** Metrics gathered as work requests are queued and run. */
+	private final WorkQueueStats stats;
+
+	/** Maximum number of queued work requests, or 0 if unbounded. */
+	private final int capacity;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
@@ -31,6 +38,9 @@ public class WorkQueue {
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/** Suggested number of queued work requests per thread for a bounded queue. */
+	public static final int CAPACITY_PER_THREAD = 16;
+
 	/**
 	 * Starts a work queue with the default number of threads.
 	 * @see #WorkQueue(int)
@@ -44,28 +54,68 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.queue    = new LinkedList<Runnable>();
+		this(threads, 0);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads which holds at
+	 * most {@code capacity} queued work requests. When the queue is full,
+	 * {@link #execute(Runnable)} blocks until a worker takes a request, so
+	 * producers cannot run ahead of the workers.
+	 * @param threads  number of worker threads; should be greater than 1
+	 * @param capacity maximum number of queued work requests, or 0 if unbounded
+	 */
+	public WorkQueue(int threads, int capacity) {
+		this.queue    = new LinkedList<Job>();
 		this.workers  = new PoolWorker[threads];
+		this.stats    = new WorkQueueStats(threads);
+		this.capacity = Math.max(0, capacity);
 		this.pending  = 0;
 		this.shutdown = false;
 
 		// start the threads so they are waiting in the background
 		for (int i = 0; i < threads; i++) {
-			workers[i] = new PoolWorker();
+			workers[i] = new PoolWorker(i);
 			workers[i].start();
 		}
 	}
 
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. If the queue is bounded and full, waits until there is room; if
+	 * the caller is itself one of this queue's workers, the request is run in
+	 * the caller's thread instead so the pool cannot deadlock on itself.
 	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
 	public void execute(Runnable r) {
 		incrementPending();
+		PoolWorker self = null;
 		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
+			while (isFull() && !shutdown) {
+				self = currentWorker();
+				if (self != null) {
+					break;
+				}
+				try {
+					queue.wait();
+				}
+				catch (InterruptedException ex) {
+					// queue the request anyway rather than lose it
+					System.err.println("Warning: Work queue interrupted.");
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			if (self == null) {
+				queue.addLast(new Job(r));
+				stats.enqueued(queue.size());
+				queue.notifyAll();
+			}
+		}
+
+		if (self != null) {
+			self.runJob(new Job(r));
 		}
 	}
 
@@ -86,6 +136,7 @@ public class WorkQueue {
 	public void shutdown() {
 		// safe to do unsynchronized due to volatile keyword
 		shutdown = true;
+		stats.stopped();
 
 		synchronized (queue) {
 			queue.notifyAll();
@@ -100,6 +151,36 @@ public class WorkQueue {
 		return workers.length;
 	}
 
+	/**
+	 * Returns the metrics gathered by this work queue so far.
+	 * @return the work queue metrics
+	 */
+	public WorkQueueStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Determines whether a bounded queue has reached its capacity. Must be
+	 * called while holding the queue lock.
+	 * @return true if no more work requests may be queued
+	 */
+	private boolean isFull() {
+		return capacity > 0 && queue.size() >= capacity;
+	}
+
+	/**
+	 * Returns the worker of this queue running the current thread, if any.
+	 * @return the current worker, or null if called from another thread
+	 */
+	private PoolWorker currentWorker() {
+		for (PoolWorker worker : workers) {
+			if (worker == Thread.currentThread()) {
+				return worker;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Safely increments the shared pending variable.
 	 */
@@ -126,9 +207,20 @@ public class WorkQueue {
 	 */
 	private class PoolWorker extends Thread {
 
+		/** The index of this worker within the pool. */
+		private final int id;
+
+		/**
+		 * Creates a worker thread.
+		 * @param id the index of this worker within the pool
+		 */
+		public PoolWorker(int id) {
+			this.id = id;
+		}
+
 		@Override
 		public void run() {
-			Runnable r = null;
+			Job r = null;
 
 			while (true) {
 				synchronized (queue) {
@@ -150,19 +242,57 @@ public class WorkQueue {
 					}
 					else {
 						r = queue.removeFirst();
+						stats.dequeued(queue.size(), System.nanoTime() - r.queued);
+						if (capacity > 0) {
+							// wake any producers waiting for room
+							queue.notifyAll();
+						}
 					}
 				}
 
-				try {
-					r.run();
-				}
-				catch (RuntimeException ex) {
-					// catch runtime exceptions to avoid leaking threads
-					System.err.println(Thread.currentThread().getName());
-					System.err.println("Warning: Work queue encountered an exception while running.");
-				}
-				decrementPending();
+				runJob(r);
 			}
 		}
+
+		/**
+		 * Runs a single work request, recording its metrics and marking it done.
+		 * @param r the work request to run
+		 */
+		private void runJob(Job r) {
+			long start = System.nanoTime();
+			boolean success = false;
+			try {
+				r.task.run();
+				success = true;
+			}
+			catch (RuntimeException ex) {
+				// catch runtime exceptions to avoid leaking threads
+				System.err.println(Thread.currentThread().getName());
+				System.err.println("Warning: Work queue encountered an exception while running.");
+			}
+			stats.ran(id, System.nanoTime() - start, success);
+			decrementPending();
+		}
+	}
+
+	/**
+	 * A work request along with the time it was added to the queue.
+	 */
+	private static class Job {
+
+		/** The work request. */
+		private final Runnable task;
+
+		/** When the work request was queued, in nanoseconds. */
+		private final long queued;
+
+		/**
+		 * Wraps a work request, stamping it with the current time.
+		 * @param task the work request
+		 */
+		public Job(Runnable task) {
+			this.task   = task;
+			this.queued = System.nanoTime();
+		}
 	}
 }
@@ -0,0 +1,256 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics gathered by a {@link WorkQueue} while it runs: current and peak
+ * queue depth, histograms of how long tasks wait in the queue and how long
+ * they take to run, the busy ratio of each worker, and counts of completed
+ * and failed tasks. All methods are thread-safe.
+ * @author Jackson Raffety
+ */
+public class WorkQueueStats {
+
+	/** How long each task waited in the queue before a worker took it. */
+	private final Histogram waitTimes;
+
+	/** How long each task took to run once a worker took it. */
+	private final Histogram runTimes;
+
+	/** Nanoseconds each worker has spent running tasks. */
+	private final long[] busy;
+
+	/** When the work queue started, in nanoseconds. */
+	private final long started;
+
+	/** When the work queue was shut down, in nanoseconds, or -1 if still running. */
+	private long stopped;
+
+	/** The number of tasks currently waiting in the queue. */
+	private int depth;
+
+	/** The largest number of tasks ever waiting in the queue at once. */
+	private int peakDepth;
+
+	/** The number of tasks which ran without throwing. */
+	private long completed;
+
+	/** The number of tasks which threw a runtime exception. */
+	private long failed;
+
+	/**
+	 * Initializes the metrics for a work queue with the given number of workers.
+	 * @param workers The number of worker threads in the work queue.
+	 */
+	public WorkQueueStats(int workers) {
+		this.waitTimes = new Histogram();
+		this.runTimes  = new Histogram();
+		this.busy      = new long[workers];
+		this.started   = System.nanoTime();
+		this.stopped   = -1;
+	}
+
+	/**
+	 * Records that a task was added to the queue.
+	 * @param queued The number of tasks waiting in the queue after the add.
+	 */
+	synchronized void enqueued(int queued) {
+		depth = queued;
+		peakDepth = Math.max(peakDepth, queued);
+	}
+
+	/**
+	 * Records that a worker removed a task from the queue.
+	 * @param queued The number of tasks waiting in the queue after the remove.
+	 * @param waited Nanoseconds the task spent waiting in the queue.
+	 */
+	synchronized void dequeued(int queued, long waited) {
+		depth = queued;
+		waitTimes.record(waited);
+	}
+
+	/**
+	 * Records that a worker finished running a task.
+	 * @param worker  The index of the worker which ran the task.
+	 * @param elapsed Nanoseconds the task took to run.
+	 * @param success Whether the task ran without throwing.
+	 */
+	synchronized void ran(int worker, long elapsed, boolean success) {
+		runTimes.record(elapsed);
+		busy[worker] += elapsed;
+		if (success) {
+			completed++;
+		}
+		else {
+			failed++;
+		}
+	}
+
+	/**
+	 * Records that the work queue was shut down, which stops the clock used
+	 * for busy ratios.
+	 */
+	synchronized void stopped() {
+		if (stopped < 0) {
+			stopped = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Returns the number of tasks currently waiting in the queue.
+	 * @return The current queue depth.
+	 */
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the largest number of tasks ever waiting in the queue at once.
+	 * @return The peak queue depth.
+	 */
+	public synchronized int getPeakDepth() {
+		return peakDepth;
+	}
+
+	/**
+	 * Returns the number of tasks which ran without throwing.
+	 * @return The number of completed tasks.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Returns the number of tasks which threw a runtime exception.
+	 * @return The number of failed tasks.
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Returns the approximate queue wait time at the given percentile.
+	 * @param percentile The percentile to look up, between 0 and 100.
+	 * @param unit       The unit in which to return the time.
+	 * @return The wait time at that percentile.
+	 */
+	public synchronized long getWaitTime(double percentile, TimeUnit unit) {
+		return unit.convert(waitTimes.percentile(percentile), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the approximate task run time at the given percentile.
+	 * @param percentile The percentile to look up, between 0 and 100.
+	 * @param unit       The unit in which to return the time.
+	 * @return The run time at that percentile.
+	 */
+	public synchronized long getRunTime(double percentile, TimeUnit unit) {
+		return unit.convert(runTimes.percentile(percentile), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the fraction of its lifetime each worker has spent running tasks.
+	 * @return The busy ratio of each worker, between 0 and 1.
+	 */
+	public synchronized double[] getBusyRatios() {
+		long lifetime = Math.max(1, (stopped < 0 ? System.nanoTime() : stopped) - started);
+		double[] ratios = new double[busy.length];
+		for (int i = 0; i < busy.length; i++) {
+			ratios[i] = Math.min(1.0, (double) busy[i] / lifetime);
+		}
+		return ratios;
+	}
+
+	/**
+	 * Returns the busy ratio averaged over every worker.
+	 * @return The mean busy ratio, between 0 and 1.
+	 */
+	public synchronized double getUtilization() {
+		double total = 0;
+		double[] ratios = getBusyRatios();
+		for (double ratio : ratios) {
+			total += ratio;
+		}
+		return ratios.length == 0 ? 0 : total / ratios.length;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("workers: %d, utilization: %.1f%%%n",
+			busy.length, getUtilization() * 100));
+		builder.append(String.format("tasks: %d completed, %d failed%n", completed, failed));
+		builder.append(String.format("depth: %d current, %d peak%n", depth, peakDepth));
+		builder.append("wait ").append(waitTimes).append(System.lineSeparator());
+		builder.append("run  ").append(runTimes).append(System.lineSeparator());
+		builder.append("busy:");
+		for (double ratio : getBusyRatios()) {
+			builder.append(String.format(" %.2f", ratio));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * A histogram of nanosecond durations bucketed by powers of two.
+	 * Percentiles are approximated by the upper bound of their bucket.
+	 */
+	private static class Histogram {
+
+		/** The number of durations in each power-of-two bucket. */
+		private final long[] buckets;
+
+		/** The number of durations recorded. */
+		private long count;
+
+		/** The sum of every duration recorded. */
+		private long total;
+
+		/** The largest duration recorded. */
+		private long max;
+
+		/**
+		 * Initializes an empty histogram.
+		 */
+		public Histogram() {
+			this.buckets = new long[Long.SIZE];
+		}
+
+		/**
+		 * Adds a duration to the histogram.
+		 * @param nanos The duration in nanoseconds.
+		 */
+		public void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			buckets[Long.SIZE - Long.numberOfLeadingZeros(nanos)]++;
+			count++;
+			total += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		/**
+		 * Returns the approximate duration at the given percentile.
+		 * @param percentile The percentile to look up, between 0 and 100.
+		 * @return The duration in nanoseconds.
+		 */
+		public long percentile(double percentile) {
+			long target = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= target && seen > 0) {
+					return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+				}
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			long mean = count == 0 ? 0 : total / count;
+			return String.format("(us): mean %d, p50 %d, p90 %d, p99 %d, max %d",
+				TimeUnit.NANOSECONDS.toMicros(mean),
+				TimeUnit.NANOSECONDS.toMicros(percentile(50)),
+				TimeUnit.NANOSECONDS.toMicros(percentile(90)),
+				TimeUnit.NANOSECONDS.toMicros(percentile(99)),
+				TimeUnit.NANOSECONDS.toMicros(max));
+		}
+	}
+}